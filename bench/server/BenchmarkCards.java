@@ -0,0 +1,108 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Card numbers and card files for the benchmarks.
+ *
+ * @author petar
+ */
+final class BenchmarkCards {
+
+    private BenchmarkCards() {
+    }
+
+    /**
+     * Get the i-th card number, numbers are spread over all 16 digit numbers
+     * and don't repeat.
+     *
+     * @param i
+     * @return number like "4563 9601 2200 1999"
+     */
+    static String number(long i) {
+        // multiplying by an odd number is a permutation mod 10^16
+        long digits = Math.floorMod(i * 0x5DEECE66DL + 11, 10000000000000000L);
+        char[] number = new char[19];
+        for (int position = 18; position >= 0; position--) {
+            if (position % 5 == 4) {
+                number[position] = ' ';
+            } else {
+                number[position] = (char) ('0' + digits % 10);
+                digits /= 10;
+            }
+        }
+        return new String(number);
+    }
+
+    /**
+     * Get the code of the i-th card number, encrypted with the standart
+     * offset.
+     *
+     * @param algorithm
+     * @param i
+     * @return
+     */
+    static String code(CryptAlgorithm algorithm, long i) {
+        return algorithm.encrypt(number(i), algorithm.getStandartOffset());
+    }
+
+    /**
+     * Create a temporary directory with a cards.xml of the first count card
+     * numbers, one code each, in the layout the server saves.
+     *
+     * @param algorithm
+     * @param count
+     * @return the cards file
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    static File createCardsFile(CryptAlgorithm algorithm, int count)
+            throws IOException, XMLStreamException {
+        File directory = Files.createTempDirectory("cards-bench").toFile();
+        File file = new File(directory, "cards.xml");
+        try (OutputStream output = new BufferedOutputStream(
+                new FileOutputStream(file), 1 << 16)) {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance()
+                    .createXMLStreamWriter(output, "UTF-8");
+            writer.writeStartElement("CreditCardDataBase");
+            writer.writeStartElement("creditCards");
+            for (int i = 0; i < count; i++) {
+                writer.writeStartElement("CreditCard");
+                writer.writeStartElement("creditCardCodes");
+                writer.writeStartElement("string");
+                writer.writeCharacters(code(algorithm, i));
+                writer.writeEndElement();
+                writer.writeEndElement();
+                writer.writeEndElement();
+            }
+            writer.writeEndElement();
+            writer.writeEndElement();
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Delete a directory created by createCardsFile.
+     *
+     * @param file the cards file
+     */
+    static void delete(File file) {
+        File[] files = file.getParentFile().listFiles();
+        if (files != null) {
+            for (File child : files) {
+                child.delete();
+            }
+        }
+        file.getParentFile().delete();
+    }
+
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encrypt, decrypt and look up cards through CreditCardManager, with stores of
+ * 1K to 10M cards. The journal is never compacted during a run, so only the
+ * store and the journal appends are measured. 10M cards need a large heap for
+ * the HEAP store(-Xmx16g), the OFF_HEAP store needs about 3GB of direct
+ * memory.
+ *
+ * @author petar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g", "-XX:MaxDirectMemorySize=8g"})
+@State(Scope.Benchmark)
+public class CardManagerBenchmark {
+
+    private static final int SAMPLE = 4096;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int cards;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public CardStoreType storeType;
+
+    private File file;
+    private String[] codes;
+    private String[] numbers;
+    private long nextNewCard;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptAlgorithm algorithm = new Algorithm(5).railFenceCipher();
+        file = BenchmarkCards.createCardsFile(algorithm, cards);
+        PersistenceSettings settings
+                = new PersistenceSettings(PersistenceMode.JOURNAL);
+        settings.setStoreType(storeType);
+        settings.setCompactionThreshold(Integer.MAX_VALUE);
+        CreditCardManager.initialize(file.getPath(), algorithm, settings);
+        codes = new String[SAMPLE];
+        numbers = new String[SAMPLE];
+        for (int i = 0; i < SAMPLE; i++) {
+            long card = (long) i * cards / SAMPLE;
+            codes[i] = BenchmarkCards.code(algorithm, card);
+            numbers[i] = BenchmarkCards.number(card);
+        }
+        nextNewCard = cards;
+    }
+
+    @TearDown
+    public void tearDown() {
+        CreditCardManager.close();
+        BenchmarkCards.delete(file);
+    }
+
+    /**
+     * State of a benchmark thread - which sample card is next.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next;
+
+        int next() {
+            next = (next + 1) & (SAMPLE - 1);
+            return next;
+        }
+    }
+
+    @Benchmark
+    public String decrypt(Cursor cursor) {
+        return CreditCardManager.decrypt(codes[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean cardExistsByCode(Cursor cursor) {
+        return CreditCardManager.cardExistsByCode(codes[cursor.next()]);
+    }
+
+    @Benchmark
+    public boolean cardCodesSizeSmallerThanTwelve(Cursor cursor) {
+        return CreditCardManager.cardCodesSizeSmallerThanTwelve(
+                numbers[cursor.next()]);
+    }
+
+    /**
+     * Encrypt a card that is not in the store, so the store grows by a card.
+     *
+     * @return
+     */
+    @Benchmark
+    public String encryptNewCard() throws IOException {
+        long card;
+        synchronized (this) {
+            card = nextNewCard++;
+        }
+        return CreditCardManager.encrypt(BenchmarkCards.number(card));
+    }
+
+}
@@ -0,0 +1,120 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encrypt and decrypt with the substitution, the rail fence and the format
+ * preserving(FF1) ciphers - one
+ * card at a time(String and char[] methods) and in batches.
+ *
+ * @author petar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CipherBenchmark {
+
+    private static final int CARDS = 1024;
+
+    @Param({"substitution", "railFence", "formatPreserving"})
+    public String cipher;
+
+    @Param({"1024", "65536"})
+    public int batchSize;
+
+    private CryptAlgorithm algorithm;
+    private String[] numbers;
+    private String[] codes;
+    private int[] offsets;
+    private String[] batchNumbers;
+    private String[] batchCodes;
+    private int[] batchOffsets;
+    private char[] buffer;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Algorithm algorithms = new Algorithm(5);
+        if (cipher.equals("substitution")) {
+            algorithm = algorithms.substitutionCipher();
+        } else if (cipher.equals("railFence")) {
+            algorithm = algorithms.railFenceCipher();
+        } else {
+            algorithm = algorithms.formatPreservingCipher(new byte[16]);
+        }
+        numbers = new String[CARDS];
+        codes = new String[CARDS];
+        offsets = new int[CARDS];
+        for (int i = 0; i < CARDS; i++) {
+            numbers[i] = BenchmarkCards.number(i);
+            offsets[i] = (i + algorithm.getStandartOffset()) % 16;
+            codes[i] = algorithm.encrypt(numbers[i], offsets[i]);
+        }
+        batchNumbers = new String[batchSize];
+        batchOffsets = new int[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            batchNumbers[i] = numbers[i % CARDS];
+            batchOffsets[i] = offsets[i % CARDS];
+        }
+        batchCodes = algorithm.encrypt(batchNumbers, batchOffsets);
+        buffer = new char[32];
+    }
+
+    private int nextCard() {
+        next = (next + 1) & (CARDS - 1);
+        return next;
+    }
+
+    @Benchmark
+    public String encrypt() {
+        int i = nextCard();
+        return algorithm.encrypt(numbers[i], offsets[i]);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        int i = nextCard();
+        return algorithm.decrypt(codes[i], offsets[i]);
+    }
+
+    @Benchmark
+    public char[] encryptToBuffer() {
+        int i = nextCard();
+        algorithm.encrypt(numbers[i], offsets[i], buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public char[] decryptToBuffer() {
+        int i = nextCard();
+        algorithm.decrypt(codes[i], offsets[i], buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String[] encryptBatch() {
+        return algorithm.encrypt(batchNumbers, batchOffsets);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String[] decryptBatch() {
+        return algorithm.decrypt(batchCodes, batchOffsets);
+    }
+
+}
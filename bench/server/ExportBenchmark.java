@@ -0,0 +1,68 @@
+package server;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Both sorted exports, sorting in memory and with the external merge sort.
+ *
+ * @author petar
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@State(Scope.Benchmark)
+public class ExportBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int cards;
+
+    // 0 - sort in memory
+    @Param({"0", "100000"})
+    public int exportRunSize;
+
+    private File file;
+    private String exportFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        CryptAlgorithm algorithm = new Algorithm(5).railFenceCipher();
+        file = BenchmarkCards.createCardsFile(algorithm, cards);
+        PersistenceSettings settings
+                = new PersistenceSettings(PersistenceMode.JOURNAL);
+        settings.setExportRunSize(exportRunSize);
+        CreditCardManager.initialize(file.getPath(), algorithm, settings);
+        exportFile = new File(file.getParentFile(), "export.txt").getPath();
+    }
+
+    @TearDown
+    public void tearDown() {
+        CreditCardManager.close();
+        BenchmarkCards.delete(file);
+    }
+
+    @Benchmark
+    public boolean saveCardsInFileSortedByNumber() {
+        return CreditCardManager.saveCardsInFileSortedByNumber(exportFile);
+    }
+
+    @Benchmark
+    public boolean saveCardsInFileSortedByCode() {
+        return CreditCardManager.saveCardsInFileSortedByCode(exportFile);
+    }
+
+}
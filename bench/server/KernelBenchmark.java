@@ -0,0 +1,66 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the scalar batch kernel of the substitution cipher with the
+ * SubstitutionKernel, in the calling thread so only the kernels are measured.
+ *
+ * @author petar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+    @Param({"scalar", "swar"})
+    public String kernel;
+
+    @Param({"1024", "65536"})
+    public int batchSize;
+
+    @Param({"true", "false"})
+    public boolean encrypt;
+
+    private CryptBatch.Kernel batchKernel;
+    private String[] input;
+    private int[] offsets;
+    private String[] output;
+
+    @Setup
+    public void setUp() {
+        CryptAlgorithm algorithm = new Algorithm(5).substitutionCipher();
+        batchKernel = kernel.equals("scalar")
+                ? CryptBatch.scalar(algorithm, encrypt)
+                : new SubstitutionKernel(algorithm, encrypt);
+        input = new String[batchSize];
+        offsets = new int[batchSize];
+        output = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            offsets[i] = i % 16;
+            input[i] = encrypt ? BenchmarkCards.number(i)
+                    : algorithm.encrypt(BenchmarkCards.number(i), offsets[i]);
+        }
+    }
+
+    @Benchmark
+    public String[] crypt() {
+        batchKernel.crypt(input, offsets, output, 0, batchSize);
+        return output;
+    }
+
+}
@@ -0,0 +1,62 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Validation of card numbers - the format check and the Luhn check, and the
+ * single pass CardValidator, on a mix of valid and invalid numbers.
+ *
+ * @author petar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidationBenchmark {
+
+    private static final int CARDS = 1024;
+
+    private String[] numbers;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        numbers = new String[CARDS];
+        for (int i = 0; i < CARDS; i++) {
+            numbers[i] = BenchmarkCards.number(i);
+        }
+    }
+
+    private String nextNumber() {
+        next = (next + 1) & (CARDS - 1);
+        return numbers[next];
+    }
+
+    @Benchmark
+    public boolean isValidNumber() {
+        return CreditCardManager.isValidNumber(nextNumber());
+    }
+
+    @Benchmark
+    public boolean isLuhnAlgorithmValid() {
+        return CreditCardManager.isLuhnAlgorithmValid(nextNumber());
+    }
+
+    @Benchmark
+    public ValidationResult validate() {
+        return CardValidator.validate(nextNumber());
+    }
+
+}
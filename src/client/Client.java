@@ -1,9 +1,10 @@
 package client;
 
 import server.Access;
+import server.ResponseStatus;
 import server.User;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
+import server.WireFrame;
+import server.WireProtocol;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.GridBagConstraints;
@@ -13,10 +14,18 @@ import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
@@ -36,8 +45,15 @@ import javax.swing.SwingUtilities;
 public class Client {
 
     private Socket socket;
-    private ObjectOutputStream output;
-    private ObjectInputStream input;
+    private DataOutputStream output;
+    private DataInputStream input;
+    // requests are sent from many threads, each with its own id
+    private final ReentrantLock outputLock = new ReentrantLock();
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    // requests waiting for their responses(status and payload), by id
+    private final ConcurrentHashMap<Integer, CompletableFuture<DataInputStream>> pendingRequests
+            = new ConcurrentHashMap<>();
+    private volatile boolean closed;
     private User user;
     private JFrame frame;
     private JTextField txtInfo;
@@ -51,9 +67,8 @@ public class Client {
      * current user.
      *
      * @throws IOException
-     * @throws ClassNotFoundException
      */
-    public void login() throws IOException, ClassNotFoundException {
+    public void login() throws IOException {
         JTextField txtFieldUsername = new JTextField();
         JTextField txtFieldPassword = new JPasswordField();
         Object[] message = {
@@ -79,9 +94,7 @@ public class Client {
                             + "*password can contain Upper/Lower letters and numbers",
                             "Invalid password", JOptionPane.ERROR_MESSAGE);
                 } else {
-                    connect("127.0.0.1", 9000);
-                    if (loggedIn(username, password)) {
-                        setUser();
+                    if (login("127.0.0.1", 9002, username, password)) {
                         JOptionPane.showMessageDialog(null,
                                 "Successfully logged in",
                                 "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -90,7 +103,6 @@ public class Client {
                         JOptionPane.showMessageDialog(null,
                                 "Wrong username or password",
                                 "Error", JOptionPane.ERROR_MESSAGE);
-                        endConnection();
                     }
                 }
             } else {
@@ -104,6 +116,138 @@ public class Client {
 
     }
 
+    /**
+     * Connect to a server and log in, without the log in form. After that the
+     * requests can be sent with the async methods.
+     *
+     * @param host
+     * @param port
+     * @param username
+     * @param password
+     * @return true if logged in, false - otherwise(the connection is closed)
+     * @throws IOException
+     */
+    public boolean login(String host, int port, String username,
+            String password) throws IOException {
+        connect(host, port);
+        if (!loggedIn(username, password)) {
+            endConnection();
+            return false;
+        }
+        Thread reader = new Thread(this::readResponses, "client-responses");
+        reader.setDaemon(true);
+        reader.start();
+        return true;
+    }
+
+    /**
+     * Encrypt a credit card number. Many requests can be sent without waiting
+     * for the responses.
+     *
+     * @param number
+     * @return completes with the response - the code if it is OK, or
+     * exceptionally if the connection is closed
+     */
+    public CompletableFuture<Response> encryptAsync(String number) {
+        int id = nextRequestId.incrementAndGet();
+        try {
+            return send(id, WireFrame.request(WireProtocol.ENCRYPT, id)
+                    .writeString(number))
+                    .thenApply(Client::readResponse);
+        } catch (IOException ex) {
+            return failed(ex);
+        }
+    }
+
+    /**
+     * Decrypt a credit card code. Many requests can be sent without waiting
+     * for the responses.
+     *
+     * @param code
+     * @return completes with the response - the number if it is OK, or
+     * exceptionally if the connection is closed
+     */
+    public CompletableFuture<Response> decryptAsync(String code) {
+        int id = nextRequestId.incrementAndGet();
+        try {
+            return send(id, WireFrame.request(WireProtocol.DECRYPT, id)
+                    .writeString(code))
+                    .thenApply(Client::readResponse);
+        } catch (IOException ex) {
+            return failed(ex);
+        }
+    }
+
+    /**
+     * Create a new user.
+     *
+     * @param username
+     * @param password
+     * @param access
+     * @return completes with the response - OK if the user is created, or
+     * exceptionally if the connection is closed
+     */
+    public CompletableFuture<Response> createNewUserAsync(String username,
+            String password, Access access) {
+        int id = nextRequestId.incrementAndGet();
+        try {
+            return send(id, WireFrame.request(WireProtocol.NEW_USER, id)
+                    .writeString(username)
+                    .writeString(password)
+                    .writeByte(WireProtocol.getAccessFlags(access)))
+                    .thenApply(Client::readResponse);
+        } catch (IOException ex) {
+            return failed(ex);
+        }
+    }
+
+    /**
+     * Encrypt a batch of credit card numbers with one request.
+     *
+     * @param numbers from 1 to WireProtocol.MAX_BATCH_SIZE numbers
+     * @return completes with the response of every number(in the order of the
+     * numbers), or exceptionally if the connection is closed
+     * @throws IllegalArgumentException if the count of numbers is wrong
+     */
+    public CompletableFuture<Response[]> encryptBatchAsync(String[] numbers) {
+        return sendBatch(WireProtocol.ENCRYPT_BATCH, numbers);
+    }
+
+    /**
+     * Decrypt a batch of credit card codes with one request.
+     *
+     * @param codes from 1 to WireProtocol.MAX_BATCH_SIZE codes
+     * @return completes with the response of every code(in the order of the
+     * codes), or exceptionally if the connection is closed
+     * @throws IllegalArgumentException if the count of codes is wrong
+     */
+    public CompletableFuture<Response[]> decryptBatchAsync(String[] codes) {
+        return sendBatch(WireProtocol.DECRYPT_BATCH, codes);
+    }
+
+    /**
+     * End connection with the server properly. The requests without a
+     * response complete exceptionally.
+     */
+    public void endConnection() {
+        closed = true;
+        try {
+            outputLock.lock();
+            try {
+                WireFrame.request(WireProtocol.END,
+                        nextRequestId.incrementAndGet()).send(output);
+            } finally {
+                outputLock.unlock();
+            }
+            input.close();
+            output.close();
+            socket.close();
+        } catch (IOException ex) {
+            //server already closed the connection, so don't do anything
+        }
+
+    }
+
     /**
      * Draw all panels - Credit card panel, Information panel and Create new
      * user panel.
@@ -174,7 +318,8 @@ public class Client {
     }
 
     /**
-     * Connect to a specified host and port.
+     * Connect to a specified host and port, with the binary protocol. The
+     * header of the protocol is sent with the first request.
      *
      * @param host
      * @param port
@@ -182,164 +327,285 @@ public class Client {
      */
     private void connect(String host, int port) throws IOException {
         socket = new Socket(host, port);
-        output = new ObjectOutputStream(socket.getOutputStream());
-        input = new ObjectInputStream(socket.getInputStream());
+        output = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+        input = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        WireProtocol.writeHeader(output, WireProtocol.VERSION);
+        closed = false;
     }
 
     /**
-     * Set current user(name, password, access), receive info from server via
-     * XStream.
+     * Trying to log in system with username and password. If logged in, set
+     * current user(name, password and the access sent by the server).
      *
+     * @param username
+     * @param password
+     * @return true if logged in, false - otherwise.
      * @throws IOException
-     * @throws ClassNotFoundException
      */
-    private void setUser() throws IOException, ClassNotFoundException {
-        String userXML = (String) input.readObject();
-        XStream xstream = new XStream(new DomDriver());
-        user = (User) xstream.fromXML(userXML);
+    private boolean loggedIn(String username, String password)
+            throws IOException {
+        WireFrame.request(WireProtocol.LOGIN, nextRequestId.incrementAndGet())
+                .writeString(username)
+                .writeString(password)
+                .send(output);
+        DataInputStream response = WireProtocol.readFrame(input);
+        response.readUnsignedByte();
+        response.readInt();
+        if (readStatus(response) != ResponseStatus.OK) {
+            return false;
+        }
+        user = new User(username, password,
+                WireProtocol.getAccess(response.readUnsignedByte()));
+        return true;
+    }
+
+    private CompletableFuture<Response[]> sendBatch(int opcode,
+            String[] items) {
+        if (items.length == 0 || items.length > WireProtocol.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Batch of " + items.length
+                    + " items");
+        }
+        int id = nextRequestId.incrementAndGet();
+        try {
+            WireFrame request = WireFrame.request(opcode, id)
+                    .writeShort(items.length);
+            for (String item : items) {
+                request.writeString(item);
+            }
+            return send(id, request).thenApply(
+                    (DataInputStream frame) -> readBatchResponse(frame,
+                            items.length));
+        } catch (IOException ex) {
+            return failed(ex);
+        }
+    }
+
+    /**
+     * Send a request, its response is matched by the id.
+     *
+     * @param id
+     * @param request
+     * @return completes with the status and payload of the response
+     */
+    private CompletableFuture<DataInputStream> send(int id,
+            WireFrame request) {
+        CompletableFuture<DataInputStream> response = new CompletableFuture<>();
+        pendingRequests.put(id, response);
+        if (closed) {
+            pendingRequests.remove(id);
+            return failed(new IOException("Connection is closed"));
+        }
+        outputLock.lock();
+        try {
+            request.send(output);
+        } catch (IOException ex) {
+            pendingRequests.remove(id);
+            response.completeExceptionally(ex);
+        } finally {
+            outputLock.unlock();
+        }
+        return response;
+    }
+
+    private static <T> CompletableFuture<T> failed(IOException ex) {
+        CompletableFuture<T> response = new CompletableFuture<>();
+        response.completeExceptionally(ex);
+        return response;
+    }
+
+    /**
+     * Read the responses of the server and complete the requests with their
+     * ids, until the connection is closed.
+     */
+    private void readResponses() {
+        try {
+            while (true) {
+                DataInputStream frame = WireProtocol.readFrame(input);
+                frame.readUnsignedByte();
+                int id = frame.readInt();
+                CompletableFuture<DataInputStream> response
+                        = pendingRequests.remove(id);
+                if (response != null) {
+                    response.complete(frame);
+                }
+            }
+        } catch (IOException ex) {
+            //connection is closed, no more responses
+            closed = true;
+            for (CompletableFuture<DataInputStream> response
+                    : pendingRequests.values()) {
+                response.completeExceptionally(ex);
+            }
+            pendingRequests.clear();
+        }
+    }
+
+    /**
+     * Read a response, after its opcode and id.
+     *
+     * @param frame
+     * @return status, and the value if there is one
+     * @throws UncheckedIOException if the response is too short
+     */
+    private static Response readResponse(DataInputStream frame) {
+        try {
+            ResponseStatus status = readStatus(frame);
+            String value = (status == ResponseStatus.OK
+                    && frame.available() > 0) ? frame.readUTF() : null;
+            return new Response(status, value);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
     /**
-     * Trying to log in system with username and password.
+     * Read the response of a batch, after its opcode and id. If the batch is
+     * not OK, every item gets its status.
      *
-     * @param username
-     * @param password
-     * @return true if logged in, false - otherwise.
+     * @param frame
+     * @param count count of items in the request
+     * @return response of every item
+     * @throws UncheckedIOException if the response is too short
+     */
+    private static Response[] readBatchResponse(DataInputStream frame,
+            int count) {
+        try {
+            Response[] responses = new Response[count];
+            ResponseStatus status = readStatus(frame);
+            if (status != ResponseStatus.OK) {
+                Arrays.fill(responses, new Response(status, null));
+                return responses;
+            }
+            frame.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                ResponseStatus itemStatus = readStatus(frame);
+                responses[i] = new Response(itemStatus,
+                        (itemStatus == ResponseStatus.OK)
+                                ? frame.readUTF() : null);
+            }
+            return responses;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Read the status of a response, after its opcode and id.
+     *
+     * @param response
+     * @return status, the payload is left in the response
      * @throws IOException
-     * @throws ClassNotFoundException
      */
-    private boolean loggedIn(String username, String password) throws IOException, ClassNotFoundException {
-        output.writeObject(username);
-        output.writeObject(password);
-        output.flush();
-        String line = (String) input.readObject();
-        return line.equals("LOGGED IN");
+    private static ResponseStatus readStatus(DataInputStream response)
+            throws IOException {
+        ResponseStatus status
+                = ResponseStatus.fromCode(response.readUnsignedByte());
+        return (status == null) ? ResponseStatus.BAD_REQUEST : status;
     }
 
     /**
-     * Try to create new user. true - if successfully created user false -
+     * Try to create new user and display if it is created - false if
      * disallowed(invalid symbols or already existing username) username or
      * password.
      *
      * @param username
      * @param password
      * @param access
-     * @return
      */
-    private boolean createNewUser(String username,
+    private void createNewUser(String username,
             String password, Access access) {
-        try {
-            if (!isValidUsername(username)) {
-                displayMessage("Invalid username");
-            } else if (!isValidPassword(password)) {
-                displayMessage("Invalid password");
-            } else {
-                output.writeObject("NEW USER");
-                User newUser = new User(username, password, access);
-                XStream xstream = new XStream(new DomDriver());
-                output.writeObject(xstream.toXML(newUser));
-                output.flush();
-                String line = (String) input.readObject();
-                if (line.equals("SUCCESSFUL")) {
-                    String message
-                            = String.format("Successfully created user %s",
-                                    username);
-                    displayMessage(message);
-                } else {
-                    String message
-                            = String.format("User %s already exists ",
-                                    username);
-                    displayMessage(message);
-                }
-                return line.equals("SUCCESSFUL");
-            }
-        } catch (IOException | ClassNotFoundException ex) {
-            showTerminatedConnectionError();
+        if (!isValidUsername(username)) {
+            displayMessage("Invalid username");
+        } else if (!isValidPassword(password)) {
+            displayMessage("Invalid password");
+        } else {
+            createNewUserAsync(username, password, access)
+                    .whenComplete((Response response, Throwable ex) -> {
+                        if (ex != null) {
+                            SwingUtilities.invokeLater(
+                                    this::showTerminatedConnectionError);
+                        } else if (response.getStatus() == ResponseStatus.OK) {
+                            String message
+                                    = String.format("Successfully created user %s",
+                                            username);
+                            displayMessage(message);
+                        } else {
+                            String message
+                                    = String.format("User %s already exists ",
+                                            username);
+                            displayMessage(message);
+                        }
+                    });
         }
-        return false;
-
     }
 
     /**
-     * Encrypt a given credit card number and display the code. Handles
-     * different responses from the server for incorrect situations.
+     * Encrypt a given credit card number and display the code, when it comes.
+     * Handles different responses from the server for incorrect situations.
      *
      * @param number
      */
     private void encryptCard(String number) {
-        try {
-            output.writeObject("ENCRYPT");
-            output.writeObject(number);
-            String response = (String) input.readObject();
-            switch (response) {
-                case "NOACCESS":
+        encryptAsync(number).whenComplete((Response response, Throwable ex) -> {
+            if (ex != null) {
+                SwingUtilities.invokeLater(this::showTerminatedConnectionError);
+                return;
+            }
+            switch (response.getStatus()) {
+                case NOACCESS:
                     displayMessage("You don't have permission!");
                     break;
-                case "INVALID":
+                case INVALID:
                     displayMessage("Invalid credit card number!");
                     break;
-                case "LUHN":
+                case LUHN:
                     displayMessage("Credit card number is not Luhn algorithm valid!");
                     break;
-                case "TOOMANY":
+                case TOOMANY:
                     displayMessage("Can't encrypt more than 12 times!");
                     break;
-                case "OK":
-                    displayMessage((String) input.readObject());
+                case UNSUPPORTED:
+                    displayMessage("Card network is not supported!");
+                    break;
+                case NOTSAVED:
+                    displayMessage("Card is not saved, try again!");
+                    break;
+                case OK:
+                    displayMessage(response.getValue());
                     break;
             }
-        } catch (IOException | ClassNotFoundException ex) {
-            showTerminatedConnectionError();
-        }
-
+        });
     }
 
     /**
-     * Decrypt a given credit card code and display the number. Handles
-     * different responses from the server for invalid situations.
+     * Decrypt a given credit card code and display the number, when it comes.
+     * Handles different responses from the server for invalid situations.
      *
      * @param code credit card code
      */
     private void decryptCard(String code) {
-        try {
-            output.writeObject("DECRYPT");
-            output.writeObject(code);
-            String response = (String) input.readObject();
-            switch (response) {
-                case "NOACCESS":
+        decryptAsync(code).whenComplete((Response response, Throwable ex) -> {
+            if (ex != null) {
+                SwingUtilities.invokeLater(this::showTerminatedConnectionError);
+                return;
+            }
+            switch (response.getStatus()) {
+                case NOACCESS:
                     displayMessage("You don't have permission!");
                     break;
-                case "INVALID":
+                case INVALID:
                     displayMessage("Invalid credit card number!");
                     break;
-                case "NOCARD":
+                case NOCARD:
                     displayMessage("No such card!");
                     break;
-                case "OK":
-                    displayMessage((String) input.readObject());
+                case OK:
+                    displayMessage(response.getValue());
                     break;
             }
-        } catch (IOException | ClassNotFoundException ex) {
-            showTerminatedConnectionError();
-        }
-
-    }
-
-    /**
-     * End connection with the server properly.
-     *
-     * @throws IOException
-     */
-    private void endConnection() {
-        try {
-            output.writeObject("END");
-            input.close();
-            output.close();
-            socket.close();
-        } catch (IOException ex) {
-            //server already closed the connection, so don't do anything
-        }
-
+        });
     }
 
     /**
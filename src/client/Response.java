@@ -0,0 +1,40 @@
+package client;
+
+import server.ResponseStatus;
+
+/**
+ * Response of the server to a request - its status, and the code(number) if
+ * the request is done.
+ *
+ * @author petar
+ */
+public final class Response {
+
+    private final ResponseStatus status;
+    private final String value;
+
+    /**
+     * Constructor
+     *
+     * @param status
+     * @param value code or number, null if there is none
+     */
+    public Response(ResponseStatus status, String value) {
+        this.status = status;
+        this.value = value;
+    }
+
+    public ResponseStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the code of an encrypted card, or the number of a decrypted one.
+     *
+     * @return code(number), or null if the status is not OK
+     */
+    public String getValue() {
+        return value;
+    }
+
+}
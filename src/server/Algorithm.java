@@ -1,8 +1,5 @@
 package server;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Different Algorithms
  *
@@ -10,6 +7,13 @@ import java.util.List;
  */
 public class Algorithm {
 
+    // permutations of the rail fence cipher are cached for offsets 0-15 and
+    // lengths up to 32
+    private static final int RAIL_FENCE_RAILS = 16;
+    private static final int RAIL_FENCE_LENGTHS = 33;
+    private static final int[][][] RAIL_FENCE_PERMUTATIONS
+            = createRailFencePermutations();
+
     final int SPECIAL_KEY;
 
     /**
@@ -33,35 +37,69 @@ public class Algorithm {
         }
 
         @Override
-        public String encrypt(String creditCardNumber, int offset) {
-            String[] cardNumber = creditCardNumber.split("");
-            StringBuilder creditCardCode = new StringBuilder();
-            for (String digit : cardNumber) {
-                if (digit.compareTo("0") >= 0 && digit.compareTo("9") <= 0) {
-                    int x = (Integer.parseInt(digit)
-                            + offset) % 10;
-                    creditCardCode.append(x);
-                } else {
-                    creditCardCode.append(digit);
+        public int encrypt(CharSequence creditCardNumber, int offset,
+                char[] creditCardCode) {
+            int length = creditCardNumber.length();
+            for (int i = 0; i < length; i++) {
+                char digit = creditCardNumber.charAt(i);
+                if (digit >= '0' && digit <= '9') {
+                    digit = (char) ('0' + (digit - '0' + offset) % 10);
                 }
+                creditCardCode[i] = digit;
             }
-            return creditCardCode.toString();
+            return length;
         }
 
         @Override
-        public String decrypt(String creditCardCode, int offset) {
-            String[] cardCode = creditCardCode.split("");
-            StringBuilder creditCardNumber = new StringBuilder();
-            for (String digit : cardCode) {
-                if (digit.compareTo("0") >= 0 && digit.compareTo("9") <= 0) {
-                    int x = (Integer.parseInt(digit)
-                            + 10 + offset) % 10;
-                    creditCardNumber.append(x);
-                } else {
-                    creditCardNumber.append(digit);
+        public int decrypt(CharSequence creditCardCode, int offset,
+                char[] creditCardNumber) {
+            int length = creditCardCode.length();
+            for (int i = 0; i < length; i++) {
+                char digit = creditCardCode.charAt(i);
+                if (digit >= '0' && digit <= '9') {
+                    digit = (char) ('0' + (digit - '0' + 10 + offset) % 10);
                 }
+                creditCardNumber[i] = digit;
+            }
+            return length;
+        }
+
+        @Override
+        public CardNumber encrypt(CardNumber creditCardNumber, int offset) {
+            if (offset < 0) {
+                return CryptAlgorithm.super.encrypt(creditCardNumber, offset);
             }
-            return creditCardNumber.toString();
+            return CardNumber.create(creditCardNumber.length(), i -> {
+                int digit = creditCardNumber.getDigit(i);
+                return (digit == CardNumber.SPACE) ? digit : (digit + offset) % 10;
+            });
+        }
+
+        @Override
+        public CardNumber decrypt(CardNumber creditCardCode, int offset) {
+            if (offset < -10) {
+                return CryptAlgorithm.super.decrypt(creditCardCode, offset);
+            }
+            return CardNumber.create(creditCardCode.length(), i -> {
+                int digit = creditCardCode.getDigit(i);
+                return (digit == CardNumber.SPACE) ? digit
+                        : (digit + 10 + offset) % 10;
+            });
+        }
+
+        /**
+         * Batches are shifted 8 digits at once by a SubstitutionKernel.
+         */
+        @Override
+        public String[] encrypt(String[] creditCardNumbers, int[] offsets) {
+            return CryptBatch.run(creditCardNumbers, offsets,
+                    new SubstitutionKernel(this, true));
+        }
+
+        @Override
+        public String[] decrypt(String[] creditCardCodes, int[] offsets) {
+            return CryptBatch.run(creditCardCodes, offsets,
+                    new SubstitutionKernel(this, false));
         }
     }
 
@@ -85,72 +123,42 @@ public class Algorithm {
     class RailFence implements CryptAlgorithm {
 
         @Override
-        public String encrypt(String plainText, int offset) {
-            if (offset == 0 || offset == 1) {
-                return plainText;
-            }
-            ArrayList<String> railFence = new ArrayList<>();
-            for (int i = 0; i < offset; i++) {
-                railFence.add("");
-            }
-
-            int number = 0;
-            int increment = 1;
-            for (char c : plainText.toCharArray()) {
-                if (number + increment == offset) {
-                    increment = -1;
-                } else if (number + increment == -1) {
-                    increment = 1;
-                }
-                railFence.set(number, railFence.get(number) + c);
-//            railFence[number] += c;
-                number += increment;
-            }
-
-            String buffer = "";
-            for (String s : railFence) {
-                buffer += s;
+        public int encrypt(CharSequence plainText, int offset, char[] cipherText) {
+            int length = plainText.length();
+            int[] permutation = getRailFencePermutation(length, offset);
+            for (int i = 0; i < length; i++) {
+                cipherText[i] = plainText.charAt(permutation[i]);
             }
-            return buffer;
+            return length;
         }
 
         @Override
-        public String decrypt(String cipherText, int offset) {
-            if (offset == 0 || offset == 1) {
-                return cipherText;
-            }
-            int cipherLength = cipherText.length();
-            List<List<Integer>> railFence = new ArrayList<>();
-            for (int i = 0; i < offset; i++) {
-                railFence.add(new ArrayList<>());
+        public int decrypt(CharSequence cipherText, int offset, char[] plainText) {
+            int length = cipherText.length();
+            int[] permutation = getRailFencePermutation(length, offset);
+            for (int i = 0; i < length; i++) {
+                plainText[permutation[i]] = cipherText.charAt(i);
             }
+            return length;
+        }
 
-            int number = 0;
-            int increment = 1;
-            for (int i = 0; i < cipherLength; i++) {
-                if (number + increment == offset) {
-                    increment = -1;
-                } else if (number + increment == -1) {
-                    increment = 1;
-                }
-//              railFence is a matrix of integers - indicating the 
-//              correct indexes order
-                railFence.get(number).add(i);
-                number += increment;
-            }
+        @Override
+        public CardNumber encrypt(CardNumber plainText, int offset) {
+            int[] permutation = getRailFencePermutation(plainText.length(),
+                    offset);
+            return CardNumber.create(plainText.length(),
+                    i -> plainText.getDigit(permutation[i]));
+        }
 
-            int counter = 0;
-            char[] buffer = new char[cipherLength];
-            for (int i = 0; i < offset; i++) {
-                for (int j = 0; j < railFence.get(i).size(); j++) {
-                    //
-                    buffer[railFence.get(i).get(j)] = cipherText.toCharArray()[counter];
-//            buffer[railFence[i][j]] = cipherText[counter];
-                    counter++;
-                }
+        @Override
+        public CardNumber decrypt(CardNumber cipherText, int offset) {
+            int[] permutation = getRailFencePermutation(cipherText.length(),
+                    offset);
+            int[] digits = new int[permutation.length];
+            for (int i = 0; i < permutation.length; i++) {
+                digits[permutation[i]] = cipherText.getDigit(i);
             }
-
-            return new String(buffer);
+            return CardNumber.create(digits.length, i -> digits[i]);
         }
 
         @Override
@@ -163,4 +171,74 @@ public class Algorithm {
         return new RailFence();
     }
 
+    /**
+     * a reference to a format preserving AES cipher(FF1), the standart offset
+     * is SPECIAL_KEY
+     *
+     * @param key AES key - 16, 24 or 32 bytes
+     * @return
+     */
+    public CryptAlgorithm formatPreservingCipher(byte[] key) {
+        return new FF1Cipher(key, SPECIAL_KEY);
+    }
+
+    /**
+     * Get the rail fence permutation for a text length and a count of rails -
+     * the i-th char of the cipher text is the permutation[i]-th char of the
+     * plain text. Card lengths and offsets(mod 16) are few, so their
+     * permutations are computed once.
+     *
+     * @param length
+     * @param rails
+     * @return permutation, shouldn't be changed
+     */
+    private static int[] getRailFencePermutation(int length, int rails) {
+        if (length < RAIL_FENCE_LENGTHS && rails >= 0 && rails < RAIL_FENCE_RAILS) {
+            return RAIL_FENCE_PERMUTATIONS[rails][length];
+        }
+        return createRailFencePermutation(length, rails);
+    }
+
+    private static int[][][] createRailFencePermutations() {
+        int[][][] permutations = new int[RAIL_FENCE_RAILS][RAIL_FENCE_LENGTHS][];
+        for (int rails = 0; rails < RAIL_FENCE_RAILS; rails++) {
+            for (int length = 0; length < RAIL_FENCE_LENGTHS; length++) {
+                permutations[rails][length]
+                        = createRailFencePermutation(length, rails);
+            }
+        }
+        return permutations;
+    }
+
+    /**
+     * Walk the rails one by one - rail r has the positions r, cycle - r,
+     * cycle + r, 2 * cycle - r... where cycle = 2 * (rails - 1).
+     *
+     * @param length
+     * @param rails
+     * @return permutation
+     */
+    private static int[] createRailFencePermutation(int length, int rails) {
+        int[] permutation = new int[length];
+        if (rails < 2) {
+            for (int i = 0; i < length; i++) {
+                permutation[i] = i;
+            }
+            return permutation;
+        }
+        int cycle = 2 * (rails - 1);
+        int counter = 0;
+        for (int rail = 0; rail < rails; rail++) {
+            for (int i = rail; i < length; i += cycle) {
+                permutation[counter++] = i;
+                // middle rails have a second position in every cycle
+                int j = i + cycle - 2 * rail;
+                if (rail != 0 && rail != rails - 1 && j < length) {
+                    permutation[counter++] = j;
+                }
+            }
+        }
+        return permutation;
+    }
+
 }
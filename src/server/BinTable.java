@@ -0,0 +1,208 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * BIN(issuer identification number) ranges of the card networks, as a prefix
+ * trie of digits. Finding the network of a number walks its first digits, so
+ * it takes O(prefix length) and allocates nothing. The longest matching
+ * prefix wins. A table is never changed, BinTableManager replaces it when the
+ * file is reloaded.
+ *
+ * The file has a range per line - "first[-last] network", for example
+ * "4 VISA" or "51-55 MASTERCARD". The first and the last BIN of a range have
+ * the same count of digits. Empty lines and lines starting with # are
+ * skipped.
+ *
+ * @author petar
+ */
+public final class BinTable {
+
+    // longest BIN prefix
+    private static final int MAX_DIGITS = 12;
+
+    // children of node n are children[n * 10 + digit], 0 - no child, node 0
+    // is the root
+    private int[] children;
+    // network of every node, -1 if no prefix ends there
+    private int[] networks;
+    private int nodeCount;
+    private final ArrayList<String> networkNames;
+
+    private BinTable() {
+        children = new int[10 * 64];
+        networks = new int[64];
+        networks[0] = -1;
+        nodeCount = 1;
+        networkNames = new ArrayList<>();
+    }
+
+    /**
+     * Create a table without ranges, no number is in it.
+     *
+     * @return
+     */
+    public static BinTable empty() {
+        return new BinTable();
+    }
+
+    /**
+     * Load a table from a file.
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file can't be read, or a line is not a range
+     */
+    public static BinTable load(File file) throws IOException {
+        BinTable table = new BinTable();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (!table.addLine(line)) {
+                    throw new IOException(String.format(
+                            "Invalid BIN range on line %d of [%s]: %s",
+                            lineNumber, file, line));
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Get the network of a card number.
+     *
+     * @param number digits and spaces, spaces are skipped
+     * @return name of the network, or null if the number is in no range
+     */
+    public String getNetwork(CharSequence number) {
+        int node = 0;
+        int network = -1;
+        int digits = 0;
+        for (int i = 0; i < number.length() && digits < MAX_DIGITS; i++) {
+            char c = number.charAt(i);
+            if (c == ' ') {
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                break;
+            }
+            node = children[node * 10 + c - '0'];
+            if (node == 0) {
+                break;
+            }
+            if (networks[node] != -1) {
+                network = networks[node];
+            }
+            digits++;
+        }
+        return (network == -1) ? null : networkNames.get(network);
+    }
+
+    /**
+     * Get the count of prefixes in the trie.
+     *
+     * @return
+     */
+    public int getPrefixCount() {
+        int count = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            if (networks[i] != -1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Add a line of the file.
+     *
+     * @param line
+     * @return false if the line is not a range, true - otherwise
+     */
+    private boolean addLine(String line) {
+        String[] parts = line.split("\\s+", 2);
+        if (parts.length != 2) {
+            return false;
+        }
+        String[] range = parts[0].split("-", 2);
+        String first = range[0];
+        String last = (range.length == 2) ? range[1] : first;
+        if (!first.matches("[0-9]{1," + MAX_DIGITS + "}")
+                || !last.matches("[0-9]+") || first.length() != last.length()
+                || first.compareTo(last) > 0) {
+            return false;
+        }
+        int network = networkNames.indexOf(parts[1]);
+        if (network == -1) {
+            networkNames.add(parts[1]);
+            network = networkNames.size() - 1;
+        }
+        addRange(Long.parseLong(first), Long.parseLong(last), first.length(),
+                network);
+        return true;
+    }
+
+    /**
+     * Add a range as the fewest prefixes that cover it, for example 400-499 is
+     * the prefix 4.
+     */
+    private void addRange(long first, long last, int length, int network) {
+        while (first <= last) {
+            int dropped = 0;
+            long block = 1;
+            while (dropped < length - 1 && first % (block * 10) == 0
+                    && first + block * 10 - 1 <= last) {
+                block *= 10;
+                dropped++;
+            }
+            addPrefix(first / block, length - dropped, network);
+            first += block;
+        }
+    }
+
+    private void addPrefix(long prefix, int length, int network) {
+        int node = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            int digit = (int) (prefix / pow10(i) % 10);
+            int child = children[node * 10 + digit];
+            if (child == 0) {
+                child = newNode();
+                children[node * 10 + digit] = child;
+            }
+            node = child;
+        }
+        networks[node] = network;
+    }
+
+    private int newNode() {
+        if (nodeCount == networks.length) {
+            networks = Arrays.copyOf(networks, nodeCount * 2);
+            children = Arrays.copyOf(children, nodeCount * 2 * 10);
+        }
+        networks[nodeCount] = -1;
+        return nodeCount++;
+    }
+
+    private static long pow10(int exponent) {
+        long power = 1;
+        for (int i = 0; i < exponent; i++) {
+            power *= 10;
+        }
+        return power;
+    }
+
+}
@@ -0,0 +1,98 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps the BIN ranges of the supported card networks, loaded from a file.
+ * The file can be reloaded while the server is running - lookups use the old
+ * table until the new one is loaded. If there is no file, the numbers of the
+ * original networks(starting with 3, 4, 5 or 6) are supported. If the file can't be loaded at first, no number is supported
+ * until it is reloaded.
+ *
+ * @author petar
+ */
+public final class BinTableManager {
+
+    private static File file;
+    private static volatile BinTable table;
+
+    private BinTableManager() {
+    }
+
+    /**
+     * Load the BIN ranges from a file.
+     *
+     * @param filename
+     * @return false if the file exists but can't be loaded, true - otherwise
+     */
+    public static boolean initialize(String filename) {
+        file = new File(filename);
+        table = null;
+        if (!reload()) {
+            //a broken file must not turn the check off
+            table = BinTable.empty();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Load the file again. If it can't be loaded, the old ranges are kept.
+     *
+     * @return false if the file exists but can't be loaded, true - otherwise
+     */
+    public static synchronized boolean reload() {
+        if (!file.exists() || file.isDirectory()) {
+            table = null;
+            return true;
+        }
+        try {
+            table = BinTable.load(file);
+            return true;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Get the network of a card number.
+     *
+     * @param number
+     * @return name of the network, or null if the number is in no range or
+     * there are no ranges
+     */
+    public static String getNetwork(CharSequence number) {
+        BinTable current = table;
+        return (current == null) ? null : current.getNetwork(number);
+    }
+
+    /**
+     * Check if a card number is in a supported range.
+     *
+     * @param number
+     * @return true if the number is in a range(or starts with 3-6 if there
+     * are no ranges), false - otherwise
+     */
+    public static boolean isSupported(CharSequence number) {
+        BinTable current = table;
+        if (current == null) {
+            //no file - the networks the server always supported
+            return number.length() > 0 && number.charAt(0) >= '3'
+                    && number.charAt(0) <= '6';
+        }
+        return current.getNetwork(number) != null;
+    }
+
+    /**
+     * Get the count of loaded prefixes.
+     *
+     * @return 0 if there are no ranges
+     */
+    public static int getPrefixCount() {
+        BinTable current = table;
+        return (current == null) ? 0 : current.getPrefixCount();
+    }
+
+}
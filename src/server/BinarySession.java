@@ -0,0 +1,276 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Binary protocol(see WireProtocol) of a client connection. Reads the
+ * requests from frames, runs them with a ClientSession and sends the
+ * responses.
+ *
+ * With version 1 every request is handled before the next one is read. From
+ * version 2 the requests after LOGIN are handled in an executor, a few at a
+ * time, and each response is sent as soon as it is ready.
+ *
+ * @author petar
+ */
+final class BinarySession {
+
+    // requests of a connection that are handled at the same time
+    private static final int MAX_IN_FLIGHT = 64;
+
+    /**
+     * Runs a request and creates its response.
+     */
+    private interface Request {
+
+        WireFrame run() throws IOException;
+    }
+
+    private final ClientSession session;
+    private final DataOutputStream output;
+    private final Executor executor;
+    private final Semaphore inFlight;
+    // responses are sent from many threads(a lock, not synchronized, so
+    // virtual threads are not pinned while they wait for the socket)
+    private final ReentrantLock outputLock;
+    private int version;
+    private boolean loggedIn;
+
+    /**
+     * Create the session of a new connection.
+     *
+     * @param output
+     * @param executor runs the requests of version 2 clients
+     */
+    BinarySession(DataOutputStream output, Executor executor) {
+        this.session = new ClientSession();
+        this.output = output;
+        this.executor = executor;
+        this.inFlight = new Semaphore(MAX_IN_FLIGHT);
+        this.outputLock = new ReentrantLock();
+    }
+
+    /**
+     * Check the protocol version of the client. If it is not supported, the
+     * client gets BAD_VERSION and the highest supported version.
+     *
+     * @param version
+     * @return true if the version is supported, false - otherwise
+     * @throws IOException
+     */
+    boolean start(int version) throws IOException {
+        if (version < 1 || version > WireProtocol.VERSION) {
+            WireFrame.response(WireProtocol.NONE, ResponseStatus.BAD_VERSION)
+                    .writeByte(WireProtocol.VERSION)
+                    .send(output);
+            GraphicServer.displayMessage(String.format(
+                    "Client with protocol version %d, closing the connection!\n",
+                    version));
+            return false;
+        }
+        this.version = version;
+        return true;
+    }
+
+    /**
+     * Handle a request. Requests after LOGIN may still be running when it
+     * returns(version 2).
+     *
+     * @param frame opcode and payload of the request
+     * @return false if the connection should be closed, true - otherwise
+     * @throws IOException
+     */
+    boolean receive(DataInputStream frame) throws IOException {
+        int opcode = frame.readUnsignedByte();
+        int id = (version >= WireProtocol.PIPELINING_VERSION)
+                ? frame.readInt() : 0;
+        if (loggedIn == (opcode == WireProtocol.LOGIN)) {
+            //log in first, and only once
+            send(response(opcode, id, ResponseStatus.BAD_REQUEST));
+            if (!loggedIn) {
+                session.unexpectedEnd();
+                return false;
+            }
+            return true;
+        }
+        switch (opcode) {
+            case WireProtocol.LOGIN:
+                return logIn(id, frame);
+            case WireProtocol.NEW_USER:
+                User newUser = new User(frame.readUTF(), frame.readUTF(),
+                        WireProtocol.getAccess(frame.readUnsignedByte()));
+                execute(opcode, id, () -> response(opcode, id,
+                        session.createNewUser(newUser)));
+                return true;
+            case WireProtocol.ENCRYPT:
+                String number = frame.readUTF();
+                execute(opcode, id, () -> result(opcode, id,
+                        session.encryptCard(number)));
+                return true;
+            case WireProtocol.DECRYPT:
+                String code = frame.readUTF();
+                execute(opcode, id,
+                        () -> result(opcode, id, session.decryptCard(code)));
+                return true;
+            case WireProtocol.ENCRYPT_BATCH:
+                String[] numbers = readBatch(frame);
+                if (numbers == null) {
+                    send(response(opcode, id, ResponseStatus.BAD_REQUEST));
+                } else {
+                    execute(opcode, id, () -> results(opcode, id,
+                            session.encryptCards(numbers)));
+                }
+                return true;
+            case WireProtocol.DECRYPT_BATCH:
+                String[] codes = readBatch(frame);
+                if (codes == null) {
+                    send(response(opcode, id, ResponseStatus.BAD_REQUEST));
+                } else {
+                    execute(opcode, id, () -> results(opcode, id,
+                            session.decryptCards(codes)));
+                }
+                return true;
+            case WireProtocol.END:
+                awaitRequests();
+                session.end();
+                return false;
+            default:
+                send(response(opcode, id, ResponseStatus.BAD_REQUEST));
+                return true;
+        }
+    }
+
+    /**
+     * Report that the connection broke before the client closed it. Waits
+     * for the running requests, so nothing is sent while the connection is
+     * closed.
+     */
+    void unexpectedEnd() {
+        awaitRequests();
+        session.unexpectedEnd();
+    }
+
+    private boolean logIn(int id, DataInputStream frame) throws IOException {
+        String username = frame.readUTF();
+        String password = frame.readUTF();
+        ResponseStatus status = session.logIn(username, password);
+        WireFrame response = response(WireProtocol.LOGIN, id, status);
+        if (status == ResponseStatus.OK) {
+            response.writeByte(WireProtocol.getAccessFlags(
+                    session.getCurrentUser().getAccess()));
+            loggedIn = true;
+        }
+        send(response);
+        return loggedIn;
+    }
+
+    /**
+     * Run a request and send its response - now for version 1, in the
+     * executor for version 2. Waits if too many requests are running.
+     */
+    private void execute(int opcode, int id, Request request)
+            throws IOException {
+        if (version < WireProtocol.PIPELINING_VERSION) {
+            send(request.run());
+            return;
+        }
+        inFlight.acquireUninterruptibly();
+        try {
+            executor.execute(() -> {
+                try {
+                    send(request.run());
+                } catch (IOException ex) {
+                    //client terminated the connection, the thread that reads
+                    //the requests finds out
+                } catch (RuntimeException ex) {
+                    //the client still gets a response for the id
+                    ex.printStackTrace();
+                    try {
+                        send(response(opcode, id,
+                                ResponseStatus.BAD_REQUEST));
+                    } catch (IOException e) {
+                        //client terminated the connection
+                    }
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            inFlight.release();
+            throw new IOException("Server is stopped", ex);
+        }
+    }
+
+    /**
+     * Wait for the running requests to send their responses.
+     */
+    private void awaitRequests() {
+        inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+        inFlight.release(MAX_IN_FLIGHT);
+    }
+
+    private void send(WireFrame response) throws IOException {
+        outputLock.lock();
+        try {
+            response.send(output);
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    private WireFrame response(int opcode, int id, ResponseStatus status)
+            throws IOException {
+        return (version >= WireProtocol.PIPELINING_VERSION)
+                ? WireFrame.response(opcode, id, status)
+                : WireFrame.response(opcode, status);
+    }
+
+    /**
+     * Read the items of a batch.
+     *
+     * @param frame
+     * @return items, or null if the count is not from 1 to MAX_BATCH_SIZE
+     * @throws IOException
+     */
+    private static String[] readBatch(DataInputStream frame)
+            throws IOException {
+        int count = frame.readUnsignedShort();
+        if (count == 0 || count > WireProtocol.MAX_BATCH_SIZE) {
+            return null;
+        }
+        String[] items = new String[count];
+        for (int i = 0; i < count; i++) {
+            items[i] = frame.readUTF();
+        }
+        return items;
+    }
+
+    private WireFrame results(int opcode, int id, ClientSession.Result[] results)
+            throws IOException {
+        WireFrame response = response(opcode, id, ResponseStatus.OK)
+                .writeShort(results.length);
+        for (ClientSession.Result result : results) {
+            response.writeByte(result.getStatus().getCode());
+            if (result.getStatus() == ResponseStatus.OK) {
+                response.writeString(result.getValue());
+            }
+        }
+        return response;
+    }
+
+    private WireFrame result(int opcode, int id, ClientSession.Result result)
+            throws IOException {
+        WireFrame response = response(opcode, id, result.getStatus());
+        if (result.getStatus() == ResponseStatus.OK) {
+            response.writeString(result.getValue());
+        }
+        return response;
+    }
+
+}
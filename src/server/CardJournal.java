@@ -0,0 +1,449 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Append-only journal of new credit card codes. Every record is a code and the
+ * first code of the card it belongs to, so the journal can be replayed on top
+ * of a saved database.
+ *
+ * Records are collected in a batch and the batch is written to the file at
+ * once. Without group commit every record is written as soon as it is
+ * appended. With group commit a committer thread writes and syncs the batch to
+ * the disk when it is full or when the commit interval passes, so many
+ * encryptions share a single write and sync.
+ *
+ * @author petar
+ */
+public class CardJournal {
+
+    // record types
+    private static final byte NEW_CARD = 0;
+    private static final byte NEW_CODE = 1;
+
+    private final File file;
+    private final boolean groupCommit;
+    private final long commitIntervalMillis;
+    private final int maxBatchSize;
+    // held while a batch is written, so batches reach the file in order
+    private final ReentrantLock fileLock = new ReentrantLock();
+    // guards the batch and the counters, batchChanged is signalled to the
+    // committer. Locks, not synchronized, so a virtual thread that appends is
+    // not pinned to its carrier while it waits for them.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchChanged = lock.newCondition();
+    private FileOutputStream output;
+    // end of the last batch that was written completely
+    private long committedLength;
+    private int recordCount;
+    private boolean closed;
+
+    // the batch that is being filled
+    private ByteArrayOutputStream batchBytes;
+    private DataOutputStream batch;
+    private int batchSize;
+    private CompletableFuture<Void> batchSaved;
+
+    // statistics
+    private long committedBatches;
+    private long committedRecords;
+
+    /**
+     * Open a journal for appending, every record is written as soon as it is
+     * appended. If the file don't exists, it will be created.
+     *
+     * @param file
+     * @param recordCount count of records already in the file
+     * @throws IOException
+     */
+    public CardJournal(File file, int recordCount) throws IOException {
+        this(file, recordCount, false, 0, 1);
+    }
+
+    /**
+     * Open a journal for appending with group commit - records are written and
+     * synced to the disk in batches. If the file don't exists, it will be
+     * created.
+     *
+     * @param file
+     * @param recordCount count of records already in the file
+     * @param commitIntervalMillis how long a record can wait for its batch to
+     * fill
+     * @param maxBatchSize count of records that are committed at once
+     * @throws IOException
+     */
+    public CardJournal(File file, int recordCount, long commitIntervalMillis,
+            int maxBatchSize) throws IOException {
+        this(file, recordCount, true, commitIntervalMillis, maxBatchSize);
+    }
+
+    private CardJournal(File file, int recordCount, boolean groupCommit,
+            long commitIntervalMillis, int maxBatchSize) throws IOException {
+        this.file = file;
+        this.recordCount = recordCount;
+        this.groupCommit = groupCommit;
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.maxBatchSize = maxBatchSize;
+        output = new FileOutputStream(file, true);
+        committedLength = output.getChannel().size();
+        newBatch();
+        if (groupCommit) {
+            Thread committer = new Thread(this::commitLoop,
+                    "journal-committer");
+            committer.setDaemon(true);
+            committer.start();
+        }
+    }
+
+    /**
+     * Append a code to the journal.
+     *
+     * @param firstCode first code of the card, equal to code for a new card
+     * @param code the new code
+     * @return completes when the record is saved in the file
+     * @throws IOException
+     */
+    public CompletableFuture<Void> append(String firstCode, String code)
+            throws IOException {
+        CompletableFuture<Void> saved;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Journal is closed");
+            }
+            if (firstCode.equals(code)) {
+                batch.writeByte(NEW_CARD);
+            } else {
+                batch.writeByte(NEW_CODE);
+                batch.writeUTF(firstCode);
+            }
+            batch.writeUTF(code);
+            batchSize++;
+            recordCount++;
+            saved = batchSaved;
+            if (batchSize == 1 || batchSize >= maxBatchSize) {
+                // wake up the committer
+                batchChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!groupCommit) {
+            commit();
+        }
+        return saved;
+    }
+
+    /**
+     * Get the count of records in the journal.
+     *
+     * @return
+     */
+    public int getRecordCount() {
+        lock.lock();
+        try {
+            return recordCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the average batch fill - committed records per batch divided by the
+     * maximum batch size.
+     *
+     * @return value between 0 and 1
+     */
+    public double getAverageBatchFill() {
+        lock.lock();
+        try {
+            if (committedBatches == 0) {
+                return 0;
+            }
+            return (double) committedRecords / committedBatches / maxBatchSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move all records to another file and start an empty journal.
+     *
+     * @param rotated file to move the records to, should not exist
+     * @throws IOException
+     */
+    public void rotate(File rotated) throws IOException {
+        fileLock.lock();
+        try {
+            commit();
+            output.close();
+            boolean renamed = file.renameTo(rotated);
+            output = new FileOutputStream(file, true);
+            committedLength = output.getChannel().size();
+            if (!renamed) {
+                throw new IOException("Cannot rename journal to " + rotated);
+            }
+            lock.lock();
+            try {
+                recordCount = batchSize;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Commit the records left and close the journal.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        fileLock.lock();
+        try {
+            commit();
+            lock.lock();
+            try {
+                closed = true;
+                batchChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            output.close();
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Write the current batch to the file and complete its future. With group
+     * commit the file is synced to the disk too.
+     *
+     * @throws IOException
+     */
+    private void commit() throws IOException {
+        fileLock.lock();
+        try {
+            byte[] bytes;
+            int size;
+            CompletableFuture<Void> saved;
+            lock.lock();
+            try {
+                if (batchSize == 0) {
+                    return;
+                }
+                batch.flush();
+                bytes = batchBytes.toByteArray();
+                size = batchSize;
+                saved = batchSaved;
+                newBatch();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                writeBatch(output, bytes);
+                if (groupCommit) {
+                    output.getFD().sync();
+                }
+            } catch (IOException ex) {
+                discard(size);
+                saved.completeExceptionally(ex);
+                throw ex;
+            }
+            committedLength += bytes.length;
+            lock.lock();
+            try {
+                committedBatches++;
+                committedRecords += size;
+            } finally {
+                lock.unlock();
+            }
+            saved.complete(null);
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    /**
+     * Write a batch to the file.
+     *
+     * @param output
+     * @param bytes
+     * @throws IOException
+     */
+    void writeBatch(FileOutputStream output, byte[] bytes) throws IOException {
+        output.write(bytes);
+    }
+
+    /**
+     * Cut a batch that was not saved from the file, so the next batch is not
+     * appended after a torn record(replay can only skip a torn record at the
+     * end of the file). If the file can't be cut, the journal is closed and
+     * the records waiting in the current batch are not saved.
+     *
+     * @param size count of records in the batch
+     */
+    private void discard(int size) {
+        IOException truncateError = null;
+        try {
+            output.getChannel().truncate(committedLength);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            truncateError = ex;
+        }
+        lock.lock();
+        try {
+            recordCount -= size;
+            if (truncateError != null) {
+                closed = true;
+                recordCount -= batchSize;
+                batchSaved.completeExceptionally(truncateError);
+                newBatch();
+                batchChanged.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Start an empty batch.
+     */
+    private void newBatch() {
+        batchBytes = new ByteArrayOutputStream();
+        batch = new DataOutputStream(batchBytes);
+        batchSize = 0;
+        batchSaved = new CompletableFuture<>();
+    }
+
+    /**
+     * Committer thread - waits for the first record of a batch, then for the
+     * batch to fill or the commit interval to pass, and commits it.
+     */
+    private void commitLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                while (!closed && batchSize == 0) {
+                    batchChanged.await();
+                }
+                long remaining = TimeUnit.MILLISECONDS.toNanos(
+                        commitIntervalMillis);
+                while (!closed && batchSize < maxBatchSize
+                        && remaining > 0) {
+                    remaining = batchChanged.awaitNanos(remaining);
+                }
+                if (closed) {
+                    return;
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                commit();
+            } catch (IOException ex) {
+                //cannot write to the journal, the waiting encryptions get
+                //the exception
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Read all records from a journal file. A record that was not written
+     * completely(at the end of the file) is ignored and cut from the file, so
+     * new records can be appended after the last complete one.
+     *
+     * @param file
+     * @param consumer accepts first code of the card and the new code
+     * @return count of records read
+     * @throws IOException
+     */
+    public static int replay(File file, BiConsumer<String, String> consumer)
+            throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        long validLength = 0;
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try (DataInputStream input = new DataInputStream(counter)) {
+            while (true) {
+                String firstCode;
+                String code;
+                try {
+                    byte type = input.readByte();
+                    firstCode = (type == NEW_CODE) ? input.readUTF() : null;
+                    code = input.readUTF();
+                } catch (EOFException ex) {
+                    break;
+                }
+                validLength = counter.getCount();
+                consumer.accept(firstCode == null ? code : firstCode, code);
+                count++;
+            }
+        }
+        if (validLength < file.length()) {
+            try (RandomAccessFile journal = new RandomAccessFile(file, "rw")) {
+                journal.setLength(validLength);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the bytes read, so replay knows where the last complete record
+     * ends.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package server;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Card number(or code) of digits and spaces, packed in two longs - a nibble
+ * per char. Hashing, comparing and keeping a number is cheaper than with a
+ * String, the ciphers can read and build numbers without chars. Numbers are
+ * compared like their strings.
+ *
+ * @author petar
+ */
+public final class CardNumber implements CharSequence, Comparable<CardNumber> {
+
+    /**
+     * Maximum count of chars.
+     */
+    public static final int MAX_LENGTH = 24;
+    /**
+     * Digit of a space.
+     */
+    public static final int SPACE = -1;
+
+    // nibbles: 0 - no char, 1 - space, 2-11 - digits 0-9, so the nibbles
+    // compare like the chars
+    private static final int NONE = 0;
+    private static final int SPACE_NIBBLE = 1;
+    private static final int DIGIT_NIBBLE = 2;
+
+    // chars 0-15, the first one in the highest nibble
+    private final long first;
+    // chars 16-23 in the highest 32 bits, length in the lowest 8 bits
+    private final long rest;
+
+    private CardNumber(long first, long rest) {
+        this.first = first;
+        this.rest = rest;
+    }
+
+    /**
+     * Get the card number of a string.
+     *
+     * @param number
+     * @return
+     * @throws IllegalArgumentException if number has other chars than digits
+     * and spaces, or is longer than MAX_LENGTH
+     */
+    public static CardNumber of(CharSequence number) {
+        CardNumber cardNumber = parse(number);
+        if (cardNumber == null) {
+            throw new IllegalArgumentException("Not a card number: " + number);
+        }
+        return cardNumber;
+    }
+
+    /**
+     * Get the card number of a string.
+     *
+     * @param number
+     * @return card number, or null if number has other chars than digits and
+     * spaces, or is longer than MAX_LENGTH
+     */
+    public static CardNumber parse(CharSequence number) {
+        if (number instanceof CardNumber) {
+            return (CardNumber) number;
+        }
+        int length = number.length();
+        if (length > MAX_LENGTH) {
+            return null;
+        }
+        long first = 0;
+        long rest = 0;
+        for (int i = 0; i < length; i++) {
+            char c = number.charAt(i);
+            int nibble;
+            if (c >= '0' && c <= '9') {
+                nibble = DIGIT_NIBBLE + c - '0';
+            } else if (c == ' ') {
+                nibble = SPACE_NIBBLE;
+            } else {
+                return null;
+            }
+            if (i < 16) {
+                first |= (long) nibble << (60 - 4 * i);
+            } else {
+                rest |= (long) nibble << (124 - 4 * i);
+            }
+        }
+        return new CardNumber(first, rest | length);
+    }
+
+    /**
+     * Create a card number from its digits.
+     *
+     * @param length
+     * @param digits gives the digit(0-9, or SPACE) at a position
+     * @return
+     * @throws IllegalArgumentException if length is more than MAX_LENGTH, or
+     * a digit is not 0-9 or SPACE
+     */
+    public static CardNumber create(int length, IntUnaryOperator digits) {
+        if (length < 0 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Illegal length " + length);
+        }
+        long first = 0;
+        long rest = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = digits.applyAsInt(i);
+            if (digit < SPACE || digit > 9) {
+                throw new IllegalArgumentException("Illegal digit " + digit);
+            }
+            long nibble = (digit == SPACE) ? SPACE_NIBBLE : DIGIT_NIBBLE + digit;
+            if (i < 16) {
+                first |= nibble << (60 - 4 * i);
+            } else {
+                rest |= nibble << (124 - 4 * i);
+            }
+        }
+        return new CardNumber(first, rest | length);
+    }
+
+    /**
+     * Get the digit at a position.
+     *
+     * @param index
+     * @return 0-9, or SPACE
+     */
+    public int getDigit(int index) {
+        return nibble(index) - DIGIT_NIBBLE;
+    }
+
+    @Override
+    public int length() {
+        return (int) (rest & 0xFF);
+    }
+
+    @Override
+    public char charAt(int index) {
+        int nibble = nibble(index);
+        return (nibble == SPACE_NIBBLE) ? ' ' : (char) ('0' + nibble - DIGIT_NIBBLE);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    private int nibble(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Index " + index);
+        }
+        long bits = (index < 16) ? first >>> (60 - 4 * index)
+                : rest >>> (124 - 4 * index);
+        return (int) (bits & 0xF);
+    }
+
+    @Override
+    public int compareTo(CardNumber other) {
+        int compare = Long.compareUnsigned(first, other.first);
+        return (compare != 0) ? compare : Long.compareUnsigned(rest, other.rest);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof CardNumber)) {
+            return false;
+        }
+        CardNumber number = (CardNumber) other;
+        return first == number.first && rest == number.rest;
+    }
+
+    @Override
+    public int hashCode() {
+        long hash = first * 0x9E3779B97F4A7C15L + rest;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = charAt(i);
+        }
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,15 @@
+package server;
+
+/**
+ * A server that accepts clients on a port and handles their requests. It is
+ * started by running it in a thread.
+ *
+ * @author petar
+ */
+public interface CardServer extends Runnable {
+
+    /**
+     * Stop the server.(thread-safe method)
+     */
+    void stop();
+}
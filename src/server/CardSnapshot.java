@@ -0,0 +1,422 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary snapshot of the credit card database, read through memory mapped
+ * buffers. Opening a snapshot reads only its header, the operating system
+ * loads the pages of the file when they are used.
+ *
+ * File layout:
+ * header - magic, version, count of cards, offset and size of the index;
+ * records - one fixed width record per card: count of codes and
+ * MAX_CODES_PER_CARD slots of a length byte and CODE_WIDTH ASCII bytes;
+ * index - open addressing hash table of ints from code to
+ * record * MAX_CODES_PER_CARD + position of the code + 1(0 is an empty slot).
+ *
+ * @author petar
+ */
+public final class CardSnapshot {
+
+    /**
+     * Maximum length of a code that fits in a record.
+     */
+    public static final int CODE_WIDTH = 19;
+
+    private static final long MAGIC = 0x43415244534e4150L; // "CARDSNAP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    // record layout, OffHeapCardStore uses it too
+    static final int CODES = CreditCardManager.MAX_CODES_PER_CARD;
+    static final int SLOT_SIZE = 1 + CODE_WIDTH;
+    static final int RECORD_SIZE = 1 + CODES * SLOT_SIZE;
+    static final int MAX_CARDS = (Integer.MAX_VALUE - 1) / CODES;
+    // 1GB chunks of the mapped file
+    static final int CHUNK_BITS = 30;
+
+    private final MappedFile mapped;
+    private final int cardCount;
+    private final long indexOffset;
+    private final long indexMask;
+
+    private CardSnapshot(MappedFile mapped) throws IOException {
+        this.mapped = mapped;
+        if (mapped.size() < HEADER_SIZE || mapped.getLong(0) != MAGIC) {
+            throw new IOException("Not a credit card snapshot");
+        }
+        if (mapped.getInt(8) != VERSION) {
+            throw new IOException("Unsupported snapshot version "
+                    + mapped.getInt(8));
+        }
+        cardCount = mapped.getInt(12);
+        indexOffset = mapped.getLong(16);
+        indexMask = mapped.getLong(24) - 1;
+    }
+
+    /**
+     * Open a snapshot file for reading.
+     *
+     * @param file
+     * @return the snapshot
+     * @throws IOException if the file can't be read or is not a snapshot
+     */
+    public static CardSnapshot open(File file) throws IOException {
+        return open(file, CHUNK_BITS);
+    }
+
+    /**
+     * Open a snapshot file mapped in chunks of a given size.
+     *
+     * @param file
+     * @param chunkBits log2 of the chunk size
+     * @return the snapshot
+     * @throws IOException if the file can't be read or is not a snapshot
+     */
+    static CardSnapshot open(File file, int chunkBits) throws IOException {
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            return new CardSnapshot(new MappedFile(input.getChannel(),
+                    FileChannel.MapMode.READ_ONLY, input.length(), chunkBits));
+        }
+    }
+
+    /**
+     * Get the count of cards in the snapshot.
+     *
+     * @return
+     */
+    public int getCardCount() {
+        return cardCount;
+    }
+
+    /**
+     * Find the card that has a given code.
+     *
+     * @param code
+     * @return record of the card, or -1 if there is no such card
+     */
+    public int findCard(CharSequence code) {
+        int slot = findSlot(code);
+        return (slot == 0) ? -1 : (slot - 1) / CODES;
+    }
+
+    /**
+     * Find the card whose first code is a given code.
+     *
+     * @param firstCode
+     * @return record of the card, or -1 if there is no such card
+     */
+    public int findCardByFirstCode(CharSequence firstCode) {
+        int slot = findSlot(firstCode);
+        return (slot == 0 || (slot - 1) % CODES != 0)
+                ? -1 : (slot - 1) / CODES;
+    }
+
+    /**
+     * Get the count of codes of a card.
+     *
+     * @param record
+     * @return
+     */
+    public int getSize(int record) {
+        return mapped.get(recordOffset(record));
+    }
+
+    /**
+     * Get a code of a card.
+     *
+     * @param record
+     * @param index position of the code in the card
+     * @return
+     */
+    public String getCode(int record, int index) {
+        long offset = slotOffset(record, index);
+        byte[] bytes = new byte[mapped.get(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = mapped.get(offset + 1 + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Read a whole card.
+     *
+     * @param record
+     * @return new CreditCard with all codes of the record
+     */
+    public CreditCard getCard(int record) {
+        CreditCard card = new CreditCard();
+        int size = getSize(record);
+        for (int i = 0; i < size; i++) {
+            card.addCreditCardCode(getCode(record, i));
+        }
+        return card;
+    }
+
+    /**
+     * Write a snapshot of cards to a file. Records are written first, then the
+     * index is built in the mapped file, so only one card at a time is kept in
+     * memory.
+     *
+     * @param file
+     * @param cards
+     * @throws IOException if the file can't be written or a card doesn't fit
+     * in a record
+     */
+    public static void write(File file, Iterable<CreditCard> cards)
+            throws IOException {
+        write(file, cards, CHUNK_BITS);
+    }
+
+    /**
+     * Write a snapshot, the index is built in chunks of a given size.
+     *
+     * @param file
+     * @param cards
+     * @param chunkBits log2 of the chunk size
+     * @throws IOException if the file can't be written or a card doesn't fit
+     * in a record
+     */
+    static void write(File file, Iterable<CreditCard> cards, int chunkBits)
+            throws IOException {
+        int count = 0;
+        long codeCount = 0;
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            output.write(new byte[HEADER_SIZE]);
+            for (CreditCard card : cards) {
+                if (count == MAX_CARDS) {
+                    throw new IOException("Too many cards for a snapshot");
+                }
+                writeRecord(output, card);
+                codeCount += card.getSize();
+                count++;
+            }
+        }
+        long indexOffset = HEADER_SIZE + (long) count * RECORD_SIZE;
+        indexOffset = (indexOffset + 7) & ~7L;
+        long slots = Long.highestOneBit(Math.max(codeCount * 2, 8) - 1) << 1;
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(indexOffset + slots * 4);
+            MappedFile mapped = new MappedFile(output.getChannel(),
+                    FileChannel.MapMode.READ_WRITE, output.length(),
+                    chunkBits);
+            mapped.putLong(0, MAGIC);
+            mapped.putInt(8, VERSION);
+            mapped.putInt(12, count);
+            mapped.putLong(16, indexOffset);
+            mapped.putLong(24, slots);
+            CardSnapshot snapshot = new CardSnapshot(mapped);
+            for (int record = 0; record < count; record++) {
+                int size = snapshot.getSize(record);
+                for (int i = 0; i < size; i++) {
+                    snapshot.insert(record, i);
+                }
+            }
+            mapped.force();
+        }
+    }
+
+    /**
+     * Write one card as a fixed width record.
+     *
+     * @param output
+     * @param card
+     * @throws IOException
+     */
+    private static void writeRecord(DataOutputStream output, CreditCard card)
+            throws IOException {
+        int size = card.getSize();
+        if (size > CODES) {
+            throw new IOException("Too many codes for a snapshot: " + card);
+        }
+        output.writeByte(size);
+        for (int i = 0; i < CODES; i++) {
+            String code = (i < size) ? card.codeAt(i) : "";
+            if (code.length() > CODE_WIDTH) {
+                throw new IOException("Code too long for a snapshot: " + code);
+            }
+            output.writeByte(code.length());
+            for (int j = 0; j < CODE_WIDTH; j++) {
+                output.writeByte(j < code.length() ? code.charAt(j) : 0);
+            }
+        }
+    }
+
+    /**
+     * Put a code of a record in the index. Codes already in the index are
+     * skipped.
+     *
+     * @param record
+     * @param index position of the code in the card
+     */
+    private void insert(int record, int index) {
+        long codeOffset = slotOffset(record, index);
+        int length = mapped.get(codeOffset);
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ mapped.get(codeOffset + 1 + i)) * 0x100000001b3L;
+        }
+        for (long bucket = mix(hash) & indexMask;; bucket = (bucket + 1) & indexMask) {
+            int slot = mapped.getInt(indexOffset + bucket * 4);
+            if (slot == 0) {
+                mapped.putInt(indexOffset + bucket * 4, record * CODES + index + 1);
+                return;
+            }
+            if (sameCode(slot, codeOffset, length)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find the index slot of a code.
+     *
+     * @param code
+     * @return the slot value, 0 if there is no such code
+     */
+    private int findSlot(CharSequence code) {
+        if (cardCount == 0 || code.length() > CODE_WIDTH) {
+            return 0;
+        }
+        for (long bucket = hash(code) & indexMask;; bucket = (bucket + 1) & indexMask) {
+            int slot = mapped.getInt(indexOffset + bucket * 4);
+            if (slot == 0 || equalsCode(slot, code)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Check if the code in an index slot equals a string.
+     */
+    private boolean equalsCode(int slot, CharSequence code) {
+        long offset = slotOffset((slot - 1) / CODES, (slot - 1) % CODES);
+        if (mapped.get(offset) != code.length()) {
+            return false;
+        }
+        for (int i = 0; i < code.length(); i++) {
+            if (mapped.get(offset + 1 + i) != (byte) code.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if the code in an index slot equals the code at an offset.
+     */
+    private boolean sameCode(int slot, long codeOffset, int length) {
+        long offset = slotOffset((slot - 1) / CODES, (slot - 1) % CODES);
+        if (mapped.get(offset) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mapped.get(offset + 1 + i) != mapped.get(codeOffset + 1 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long recordOffset(int record) {
+        return HEADER_SIZE + (long) record * RECORD_SIZE;
+    }
+
+    private static long slotOffset(int record, int index) {
+        return recordOffset(record) + 1 + (long) index * SLOT_SIZE;
+    }
+
+    /**
+     * Hash of a code, the same as the hash of its ASCII bytes in a record.
+     *
+     * @param code
+     * @return
+     */
+    static long hash(CharSequence code) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < code.length(); i++) {
+            hash = (hash ^ (byte) code.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * A file mapped in chunks, because a single buffer can't be bigger than
+     * 2GB. Chunks overlap a little, so a value never crosses the end of a
+     * chunk.
+     */
+    private static final class MappedFile {
+
+        private static final int OVERLAP = 256;
+
+        private final MappedByteBuffer[] chunks;
+        private final long size;
+        private final int chunkBits;
+        private final long chunkMask;
+
+        MappedFile(FileChannel channel, FileChannel.MapMode mode, long size,
+                int chunkBits) throws IOException {
+            this.size = size;
+            this.chunkBits = chunkBits;
+            chunkMask = (1L << chunkBits) - 1;
+            int count = (int) ((size + chunkMask) >>> chunkBits);
+            chunks = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long position = (long) i << chunkBits;
+                chunks[i] = channel.map(mode, position,
+                        Math.min(chunkMask + 1 + OVERLAP, size - position));
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        byte get(long position) {
+            return chunks[(int) (position >>> chunkBits)]
+                    .get((int) (position & chunkMask));
+        }
+
+        int getInt(long position) {
+            return chunks[(int) (position >>> chunkBits)]
+                    .getInt((int) (position & chunkMask));
+        }
+
+        long getLong(long position) {
+            return chunks[(int) (position >>> chunkBits)]
+                    .getLong((int) (position & chunkMask));
+        }
+
+        void putInt(long position, int value) {
+            chunks[(int) (position >>> chunkBits)]
+                    .putInt((int) (position & chunkMask), value);
+        }
+
+        void putLong(long position, long value) {
+            chunks[(int) (position >>> chunkBits)]
+                    .putLong((int) (position & chunkMask), value);
+        }
+
+        void force() {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts an XML file of credit cards(using XStream) to a binary
+ * CardSnapshot. The journal of the XML file should be merged into it first,
+ * which the server does when it is stopped. The cards are streamed, so the
+ * XML file is never loaded in memory as a whole.
+ *
+ * @author petar
+ */
+public class CardSnapshotConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println(
+                    "Usage: CardSnapshotConverter <cards.xml> <cards.bin>");
+            return;
+        }
+        try (CardXmlReader reader = new CardXmlReader(new File(args[0]))) {
+            CardSnapshot.write(new File(args[1]), () -> reader);
+            System.out.printf("%d credit cards saved in [%s]%n",
+                    reader.getCount(), args[1]);
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package server;
+
+import java.util.stream.Stream;
+
+/**
+ * Keeps the credit cards in memory and finds them by code. A card is found by
+ * its first code(the number encrypted with the standart offset). Codes are
+ * CardNumbers, getCreditCards gives them as strings. Adding codes
+ * to the same card should not be done concurrently, CreditCardManager locks the
+ * card first.
+ *
+ * @author petar
+ */
+public interface CardStore {
+
+    /**
+     * Get the first code of the card that has a given code.
+     *
+     * @param code
+     * @return first code, or null if there is no such card
+     */
+    CardNumber getFirstCode(CardNumber code);
+
+    /**
+     * Get the count of codes of a card.
+     *
+     * @param firstCode
+     * @return count of codes, 0 if there is no such card
+     */
+    int getSize(CardNumber firstCode);
+
+    /**
+     * Add a code to a card. If there is no card with the given first code, a
+     * new card is created with code as its first code.
+     *
+     * @param firstCode
+     * @param code
+     */
+    void addCode(CardNumber firstCode, CardNumber code);
+
+    /**
+     * Get the count of cards.
+     *
+     * @return
+     */
+    int getCardCount();
+
+    /**
+     * Get all cards. Cards added meanwhile may be missing. The cards should not
+     * be changed.
+     *
+     * @return
+     */
+    Stream<CreditCard> getCreditCards();
+
+}
@@ -0,0 +1,21 @@
+package server;
+
+/**
+ * Where CreditCardManager keeps the credit cards in memory.
+ *
+ * @author petar
+ */
+public enum CardStoreType {
+
+    /**
+     * HeapCardStore - codes packed as CardNumber keys in ConcurrentHashMaps
+     * (first code to the codes of the card, and every code to its first
+     * code), with a queue of first codes that keeps the order of the cards.
+     */
+    HEAP,
+    /**
+     * OffHeapCardStore - codes packed in direct buffers, outside of the heap.
+     * For very big databases, it saves a lot of memory and garbage collection.
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,102 @@
+package server;
+
+import java.util.stream.IntStream;
+
+/**
+ * Validates card numbers in a single pass, without allocating - the format
+ * (a digit, then digits and spaces, 16 to 19 chars) and the Luhn checksum
+ * are checked together, from the last char to the first. Which numbers
+ * belong to a card network is decided by the BIN table(BinTableManager), not
+ * here.
+ *
+ * @author petar
+ */
+public final class CardValidator {
+
+    private static final int MIN_LENGTH = 16;
+    private static final int MAX_LENGTH = 19;
+    // batches up to that size are validated in the calling thread
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    private CardValidator() {
+    }
+
+    /**
+     * Validate a card number.
+     *
+     * @param number
+     * @return INVALID if it is not a card number, LUHN if the checksum is
+     * wrong, OK - otherwise
+     */
+    public static ValidationResult validate(CharSequence number) {
+        int length = number.length();
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            return ValidationResult.INVALID;
+        }
+        char first = number.charAt(0);
+        if (first < '0' || first > '9') {
+            return ValidationResult.INVALID;
+        }
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = length - 1; i >= 0; i--) {
+            char c = number.charAt(i);
+            if (c == ' ') {
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                return ValidationResult.INVALID;
+            }
+            sum += luhnDigit(c - '0', doubled);
+            doubled = !doubled;
+        }
+        return (sum % 10 == 0) ? ValidationResult.OK : ValidationResult.LUHN;
+    }
+
+    /**
+     * Validate many card numbers, large batches in parallel.
+     *
+     * @param numbers
+     * @return result of every number, in the order of the numbers
+     */
+    public static ValidationResult[] validate(CharSequence[] numbers) {
+        ValidationResult[] results = new ValidationResult[numbers.length];
+        IntStream indexes = IntStream.range(0, numbers.length);
+        if (numbers.length > PARALLEL_THRESHOLD) {
+            indexes = indexes.parallel();
+        }
+        indexes.forEach(i -> results[i] = validate(numbers[i]));
+        return results;
+    }
+
+    /**
+     * Check only the Luhn checksum of a number, spaces are skipped.
+     *
+     * @param number
+     * @return true if the checksum is right, false - otherwise
+     */
+    public static boolean isLuhnValid(CharSequence number) {
+        int sum = 0;
+        boolean doubled = false;
+        for (int i = number.length() - 1; i >= 0; i--) {
+            char c = number.charAt(i);
+            if (c != ' ') {
+                sum += luhnDigit(Character.digit(c, 10), doubled);
+                doubled = !doubled;
+            }
+        }
+        return sum % 10 == 0;
+    }
+
+    /**
+     * Every second digit from the right is doubled, 9 is subtracted from
+     * doubled digits over 9.
+     */
+    private static int luhnDigit(int digit, boolean doubled) {
+        if (!doubled) {
+            return digit;
+        }
+        return (digit >= 5) ? 2 * digit - 9 : 2 * digit;
+    }
+
+}
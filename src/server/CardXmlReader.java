@@ -0,0 +1,110 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the credit cards of an XML file(the XStream layout) one at a time, so
+ * the file is never loaded in memory as a whole.
+ *
+ * @author petar
+ */
+class CardXmlReader implements Iterator<CreditCard>, Closeable {
+
+    private final InputStream input;
+    private final XMLStreamReader reader;
+    private CreditCard next;
+    private int count;
+
+    /**
+     * Open the file for reading.
+     *
+     * @param file
+     * @throws IOException if the file cannot be opened
+     */
+    CardXmlReader(File file) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        input = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        try {
+            reader = factory.createXMLStreamReader(input);
+        } catch (XMLStreamException ex) {
+            input.close();
+            throw new IOException("Cannot read credit cards", ex);
+        }
+    }
+
+    /**
+     * Get the count of cards read so far.
+     *
+     * @return
+     */
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = readCard();
+        }
+        return next != null;
+    }
+
+    @Override
+    public CreditCard next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        CreditCard card = next;
+        next = null;
+        count++;
+        return card;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Read the codes up to the end of the next card.
+     *
+     * @return the card, null at the end of the file
+     */
+    private CreditCard readCard() {
+        try {
+            CreditCard card = new CreditCard();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT
+                        && reader.getLocalName().equals("string")) {
+                    card.addCreditCardCode(reader.getElementText());
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                        && reader.getLocalName().equals("CreditCard")) {
+                    return card;
+                }
+            }
+            return null;
+        } catch (XMLStreamException ex) {
+            throw new RuntimeException("Cannot read credit cards", ex);
+        }
+    }
+
+}
@@ -1,11 +1,15 @@
 package server;
 
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.concurrent.Executor;
 
 /**
  * ClientHandlerRunnable is responsible for the communication between client and
@@ -16,197 +20,113 @@ import java.net.Socket;
  */
 public class ClientHandlerRunnable implements Runnable {
 
-    private Socket clientSocket;
-    private ObjectOutputStream output;
-    private ObjectInputStream input;
-    private User currentUser;
+    private final Socket clientSocket;
+    private final ProtocolType protocol;
+    private final Executor requestExecutor;
+    private Closeable output;
+    private Closeable input;
 
     /**
-     * Constructor - create socket and initialize streams.
+     * Constructor - a client of the object stream protocol.
      *
      * @param clientSocket
      */
     public ClientHandlerRunnable(Socket clientSocket) {
+        this(clientSocket, ProtocolType.OBJECT_STREAM, Runnable::run);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param clientSocket
+     * @param protocol protocol of the client
+     * @param requestExecutor runs the pipelined requests of binary clients
+     */
+    public ClientHandlerRunnable(Socket clientSocket, ProtocolType protocol,
+            Executor requestExecutor) {
         this.clientSocket = clientSocket;
-        try {
-            output = new ObjectOutputStream(clientSocket.getOutputStream());
-            input = new ObjectInputStream(clientSocket.getInputStream());
-        } catch (IOException ex) {
-            //if the socket input/output has been shutdown
-            ex.printStackTrace();
-        }
+        this.protocol = protocol;
+        this.requestExecutor = requestExecutor;
     }
 
     /**
-     * Provides the communication. Waits for user to log in system and then
-     * according to his requests execute actions. These actions are reported to
-     * the server.
+     * Provides the communication. Reads the requests of the client and passes
+     * them to a session, which logs the user in and executes his requests,
+     * until the client ends the session.
      *
      */
     @Override
     public void run() {
         try {
-            if (logInSystem()) {
-                String action;
-                do {
-                    action = (String) input.readObject();
-                    switch (action) {
-                        case "NEW USER":
-                            createNewUser();
-                            break;
-                        case "ENCRYPT":
-                            encryptCard();
-                            break;
-                        case "DECRYPT":
-                            decryptCard();
-                            break;
-                    }
-                } while (!action.equals("END"));
-                String message = String.format("[%s] closed the connection!\n", currentUser);
-                GraphicServer.displayMessage(message);
-                closeConnection();
+            if (protocol == ProtocolType.BINARY) {
+                runBinary();
             } else {
-                String message = String.format(
-                        "User failed to log in, closing the connection!\n");
-                GraphicServer.displayMessage(message);
-                closeConnection();
+                runObjectStream();
             }
+            closeConnection();
         } catch (IOException e) {
-            //client is sending unexpected request or
-            //unexpectedly terminated the connection
-            //should never happen in normal circumstances
-            GraphicServer.displayMessage(
-                    String.format("[%s]Unexpected action!\n", currentUser));
+            //if the socket input/output has been shutdown
+            e.printStackTrace();
             try {
                 closeConnection();
             } catch (IOException ex) {
                 // something is wrong with the socket, cannot close it properly
                 ex.printStackTrace();
             }
-
-        } catch (ClassNotFoundException ex) {
-            //can't find the proper class to load.
-            ex.printStackTrace();
         }
     }
 
     /**
-     * Set current User to a given User.
+     * Talk to the client with Strings written by ObjectOutputStream. The
+     * streams are created in the thread of the client, not in the thread that
+     * accepts clients, because ObjectInputStream waits for the header of the
+     * client.
      *
-     * @param currentUser
+     * @throws IOException if the streams can't be opened
      */
-    private void setCurrentUser(User currentUser) {
-        this.currentUser = currentUser;
-    }
-
-    /**
-     * Accepts a username and password from client and check the database for
-     * the specified User. Sends back to client the User(with permissions) in
-     * form of XML(using XStream).
-     *
-     * @return true if successfully logged in, false if user is incorrect
-     * @throws IOException
-     * @throws ClassNotFoundException
-     */
-    private boolean logInSystem() throws IOException, ClassNotFoundException {
-        String username = (String) input.readObject();
-        String password = (String) input.readObject();
-        String message = String.format("[%s] trying to log in\n", username);
-        GraphicServer.displayMessage(message);
-        if (UserManager.getUser(username, password) == null) {
-            output.writeObject("NOT LOGGED IN");
-            output.flush();
-            return false;
-        }
-        output.writeObject("LOGGED IN");
-        setCurrentUser(UserManager.getUser(username, password));
-        String succMessage = String.format("[%s] logged in successfully!\n",
-                currentUser);
-        GraphicServer.displayMessage(succMessage);
-        XStream xstream = new XStream(new DomDriver());
-        output.writeObject(xstream.toXML(currentUser));
-        output.flush();
-        return true;
-    }
-
-    /**
-     * Add a new user to the database. User info(name, password, permissions) is
-     * received from the client in form of XML(using XStream). Current User
-     * should be administrator in order to use this method.
-     *
-     * @throws IOException
-     * @throws ClassNotFoundException
-     */
-    private synchronized void createNewUser() throws IOException, ClassNotFoundException {
-        String userXML = (String) input.readObject();
-        XStream xstream = new XStream(new DomDriver());
-        User newUser = (User) xstream.fromXML(userXML);
-        if (currentUser.getAccess().isAdministrator()
-                && UserManager.createNewUser(newUser)) {
-            output.writeObject("SUCCESSFUL");
-            String message = String.format(
-                    "[%s] created user [%s] successfully!\n",
-                    currentUser, newUser);
-            GraphicServer.displayMessage(message);
-        } else {
-            output.writeObject("NOT SUCCESSFUL");
-            String message = String.format(
-                    "User [%s] NOT created!\n", newUser);
-            GraphicServer.displayMessage(message);
-        }
-    }
-
-    /**
-     * Encrypt credit card number. Receive number from client, and sends back to
-     * him the code, or appropriate response if something goes wrong.
-     *
-     * @throws IOException
-     * @throws ClassNotFoundException
-     */
-    private synchronized void encryptCard() throws IOException, ClassNotFoundException {
-        String cardNumber = (String) input.readObject();
-        if (!currentUser.getAccess().isAbleToEncrypt()) {
-            output.writeObject("NOACCESS");
-        } else if (!CreditCardManager.isValidNumber(cardNumber)) {
-            output.writeObject("INVALID");
-        } else if (!CreditCardManager.isLuhnAlgorithmValid(cardNumber)) {
-            output.writeObject("LUHN");
-        } else if (!CreditCardManager.cardCodesSizeSmallerThanTwelve(cardNumber)) {
-            output.writeObject("TOOMANY");
-        } else {
-            String creditCardCode = CreditCardManager.encrypt(cardNumber);
-            output.writeObject("OK");
-            output.writeObject(creditCardCode);
-            String message = String.format(
-                    "[%s] encrypted creditcard with number [%s] successfully!\n",
-                    currentUser, cardNumber);
-            GraphicServer.displayMessage(message);
+    private void runObjectStream() throws IOException {
+        ObjectOutputStream objectOutput = new ObjectOutputStream(
+                clientSocket.getOutputStream());
+        output = objectOutput;
+        ObjectInputStream objectInput = new ObjectInputStream(
+                clientSocket.getInputStream());
+        input = objectInput;
+        ClientSession session = new ClientSession((String response) -> {
+            objectOutput.writeObject(response);
+            objectOutput.flush();
+        });
+        try {
+            while (session.receive((String) objectInput.readObject())) {
+            }
+        } catch (IOException e) {
+            session.unexpectedEnd();
+        } catch (ClassNotFoundException ex) {
+            //can't find the proper class to load.
+            ex.printStackTrace();
         }
-
     }
 
     /**
-     * Decrypt credit card number. Receive number from client, and sends back to
-     * him the number of card, or appropriate response if something goes wrong.
+     * Talk to the client with frames of the binary protocol.
      *
-     * @throws IOException
-     * @throws ClassNotFoundException
+     * @throws IOException if the streams can't be opened
      */
-    private void decryptCard() throws IOException, ClassNotFoundException {
-        String cardCode = (String) input.readObject();
-        if (!currentUser.getAccess().isAbleToRequestCard()) {
-            output.writeObject("NOACCESS");
-        } else if (!CreditCardManager.cardExistsByCode(cardCode)) {
-            output.writeObject("NOCARD");
-        } else {
-            String creditCardNumber = CreditCardManager.decrypt(cardCode);
-            output.writeObject("OK");
-            output.writeObject(creditCardNumber);
-            String message = String.format(
-                    "[%s] decrypted creditcard with code [%s] successfully!\n",
-                    currentUser, cardCode);
-            GraphicServer.displayMessage(message);
-
+    private void runBinary() throws IOException {
+        DataOutputStream dataOutput = new DataOutputStream(
+                new BufferedOutputStream(clientSocket.getOutputStream()));
+        output = dataOutput;
+        DataInputStream dataInput = new DataInputStream(
+                new BufferedInputStream(clientSocket.getInputStream()));
+        input = dataInput;
+        BinarySession session = new BinarySession(dataOutput,
+                requestExecutor);
+        try {
+            if (session.start(WireProtocol.readHeader(dataInput))) {
+                while (session.receive(WireProtocol.readFrame(dataInput))) {
+                }
+            }
+        } catch (IOException e) {
+            session.unexpectedEnd();
         }
     }
 
@@ -216,8 +136,12 @@ public class ClientHandlerRunnable implements Runnable {
      * @throws IOException
      */
     private void closeConnection() throws IOException {
-        input.close();
-        output.close();
+        if (input != null) {
+            input.close();
+        }
+        if (output != null) {
+            output.close();
+        }
         clientSocket.close();
     }
 
@@ -0,0 +1,398 @@
+package server;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.xml.DomDriver;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Commands of a client connection, apart from how the messages are read and
+ * written. The commands(log in, create a user, encrypt, decrypt) return a
+ * status, and are reported to the server, so every protocol runs the same
+ * code.
+ *
+ * The session also speaks the object stream protocol: the client sends its
+ * username and password, then actions(NEW USER, ENCRYPT, DECRYPT) each
+ * followed by its argument, until END. The session gets the messages one by
+ * one and writes the responses to an Output, which is used by the blocking
+ * ClientHandlerRunnable and by the SelectorServer.
+ *
+ * @author petar
+ */
+final class ClientSession {
+
+    /**
+     * Sends the responses to the client.
+     */
+    interface Output {
+
+        /**
+         * Send a response.
+         *
+         * @param response
+         * @throws IOException
+         */
+        void write(String response) throws IOException;
+    }
+
+    /**
+     * Status of a command and its result(code or number), if any.
+     */
+    static final class Result {
+
+        private final ResponseStatus status;
+        private final String value;
+
+        private Result(ResponseStatus status, String value) {
+            this.status = status;
+            this.value = value;
+        }
+
+        ResponseStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * Get the result.
+         *
+         * @return result, or null if the status is not OK
+         */
+        String getValue() {
+            return value;
+        }
+    }
+
+    // what the next message of the client is
+    private enum State {
+
+        USERNAME, PASSWORD, ACTION, NEW_USER, ENCRYPT, DECRYPT, CLOSED
+    }
+
+    private final Output output;
+    private State state;
+    private String username;
+    private User currentUser;
+
+    /**
+     * Create a session of a new connection, that uses only the commands.
+     */
+    ClientSession() {
+        this(null);
+    }
+
+    /**
+     * Create a session of a new connection of the object stream protocol.
+     *
+     * @param output
+     */
+    ClientSession(Output output) {
+        this.output = output;
+        this.state = State.USERNAME;
+    }
+
+    /**
+     * Get the logged in user.
+     *
+     * @return user, or null if not logged in
+     */
+    User getCurrentUser() {
+        return currentUser;
+    }
+
+    /**
+     * Handle the next message of the client in the object stream protocol.
+     *
+     * @param message
+     * @return false if the connection should be closed, true - otherwise
+     * @throws IOException
+     */
+    boolean receive(String message) throws IOException {
+        switch (state) {
+            case USERNAME:
+                username = message;
+                state = State.PASSWORD;
+                break;
+            case PASSWORD:
+                if (logIn(username, message) == ResponseStatus.OK) {
+                    output.write("LOGGED IN");
+                    XStream xstream = new XStream(new DomDriver());
+                    output.write(xstream.toXML(currentUser));
+                    state = State.ACTION;
+                } else {
+                    output.write("NOT LOGGED IN");
+                    state = State.CLOSED;
+                }
+                break;
+            case ACTION:
+                switch (message) {
+                    case "NEW USER":
+                        state = State.NEW_USER;
+                        break;
+                    case "ENCRYPT":
+                        state = State.ENCRYPT;
+                        break;
+                    case "DECRYPT":
+                        state = State.DECRYPT;
+                        break;
+                    case "END":
+                        end();
+                        break;
+                }
+                break;
+            case NEW_USER:
+                XStream xstream = new XStream(new DomDriver());
+                User newUser = (User) xstream.fromXML(message);
+                output.write((createNewUser(newUser) == ResponseStatus.OK)
+                        ? "SUCCESSFUL" : "NOT SUCCESSFUL");
+                state = State.ACTION;
+                break;
+            case ENCRYPT:
+                writeResult(encryptCard(message));
+                state = State.ACTION;
+                break;
+            case DECRYPT:
+                writeResult(decryptCard(message));
+                state = State.ACTION;
+                break;
+        }
+        return state != State.CLOSED;
+    }
+
+    /**
+     * Send a result in the object stream protocol - the name of the status,
+     * and the result if it is OK.
+     */
+    private void writeResult(Result result) throws IOException {
+        output.write(result.getStatus().name());
+        if (result.getStatus() == ResponseStatus.OK) {
+            output.write(result.getValue());
+        }
+    }
+
+    /**
+     * Report that the client closed the connection.
+     */
+    void end() {
+        GraphicServer.displayMessage(String.format(
+                "[%s] closed the connection!\n", currentUser));
+        state = State.CLOSED;
+    }
+
+    /**
+     * Report that the connection broke before the client closed it.
+     */
+    void unexpectedEnd() {
+        if (state != State.CLOSED) {
+            //client is sending unexpected request or
+            //unexpectedly terminated the connection
+            //should never happen in normal circumstances
+            GraphicServer.displayMessage(
+                    String.format("[%s]Unexpected action!\n", currentUser));
+            state = State.CLOSED;
+        }
+    }
+
+    /**
+     * Check the database for the user and log him in.
+     *
+     * @param username
+     * @param password
+     * @return OK if successfully logged in, DENIED if user is incorrect
+     */
+    ResponseStatus logIn(String username, String password) {
+        String message = String.format("[%s] trying to log in\n", username);
+        GraphicServer.displayMessage(message);
+        User user = UserManager.getUser(username, password);
+        if (user == null) {
+            GraphicServer.displayMessage(String.format(
+                    "User failed to log in, closing the connection!\n"));
+            state = State.CLOSED;
+            return ResponseStatus.DENIED;
+        }
+        currentUser = user;
+        String succMessage = String.format("[%s] logged in successfully!\n",
+                currentUser);
+        GraphicServer.displayMessage(succMessage);
+        state = State.ACTION;
+        return ResponseStatus.OK;
+    }
+
+    /**
+     * Add a new user to the database. Current User should be administrator in
+     * order to use this method.
+     *
+     * @param newUser
+     * @return OK if created, DENIED - otherwise
+     */
+    ResponseStatus createNewUser(User newUser) {
+        if (currentUser.getAccess().isAdministrator()
+                && UserManager.createNewUser(newUser)) {
+            String message = String.format(
+                    "[%s] created user [%s] successfully!\n",
+                    currentUser, newUser);
+            GraphicServer.displayMessage(message);
+            return ResponseStatus.OK;
+        } else {
+            String message = String.format(
+                    "User [%s] NOT created!\n", newUser);
+            GraphicServer.displayMessage(message);
+            return ResponseStatus.DENIED;
+        }
+    }
+
+    /**
+     * Encrypt credit card number. Numbers out of the supported BIN ranges are
+     * rejected before encrypting. Returns after CreditCardManager has saved
+     * the code, a code that is not saved is not sent(NOTSAVED).
+     *
+     * @param cardNumber
+     * @return the code, or the reason it is not encrypted
+     */
+    Result encryptCard(String cardNumber) {
+        ValidationResult validation = CardValidator.validate(cardNumber);
+        if (!currentUser.getAccess().isAbleToEncrypt()) {
+            return new Result(ResponseStatus.NOACCESS, null);
+        } else if (validation == ValidationResult.INVALID) {
+            return new Result(ResponseStatus.INVALID, null);
+        } else if (validation == ValidationResult.LUHN) {
+            return new Result(ResponseStatus.LUHN, null);
+        } else if (!BinTableManager.isSupported(cardNumber)) {
+            return new Result(ResponseStatus.UNSUPPORTED, null);
+        }
+        //encrypt returns null if the card is encrypted twelve times already
+        String creditCardCode;
+        try {
+            creditCardCode = CreditCardManager.encrypt(cardNumber);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            GraphicServer.displayMessage(String.format(
+                    "[%s] creditcard with number [%s] NOT saved!\n",
+                    currentUser, cardNumber));
+            return new Result(ResponseStatus.NOTSAVED, null);
+        }
+        if (creditCardCode == null) {
+            return new Result(ResponseStatus.TOOMANY, null);
+        }
+        String message = String.format(
+                "[%s] encrypted creditcard with number [%s] successfully!\n",
+                currentUser, cardNumber);
+        GraphicServer.displayMessage(message);
+        return new Result(ResponseStatus.OK, creditCardCode);
+    }
+
+    /**
+     * Encrypt a batch of credit card numbers. The numbers are validated
+     * together, the valid ones are encrypted and saved together, and the batch
+     * is reported in one message.
+     *
+     * @param cardNumbers
+     * @return result of every number, in the order of the numbers
+     */
+    Result[] encryptCards(String[] cardNumbers) {
+        Result[] results = new Result[cardNumbers.length];
+        if (!currentUser.getAccess().isAbleToEncrypt()) {
+            Arrays.fill(results, new Result(ResponseStatus.NOACCESS, null));
+            return results;
+        }
+        ValidationResult[] validations = CardValidator.validate(cardNumbers);
+        // indexes of the numbers that are going to be encrypted
+        int[] valid = new int[cardNumbers.length];
+        int count = 0;
+        for (int i = 0; i < cardNumbers.length; i++) {
+            if (validations[i] == ValidationResult.INVALID) {
+                results[i] = new Result(ResponseStatus.INVALID, null);
+            } else if (validations[i] == ValidationResult.LUHN) {
+                results[i] = new Result(ResponseStatus.LUHN, null);
+            } else if (!BinTableManager.isSupported(cardNumbers[i])) {
+                results[i] = new Result(ResponseStatus.UNSUPPORTED, null);
+            } else {
+                valid[count++] = i;
+            }
+        }
+        String[] numbers = new String[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = cardNumbers[valid[i]];
+        }
+        //a code is null for the cards encrypted twelve times already, and
+        //failed if it is not saved
+        List<CompletableFuture<String>> codes
+                = CreditCardManager.encrypt(numbers);
+        int encrypted = 0;
+        int notSaved = 0;
+        for (int i = 0; i < count; i++) {
+            CompletableFuture<String> code = codes.get(i);
+            if (code.isCompletedExceptionally()) {
+                results[valid[i]] = new Result(ResponseStatus.NOTSAVED, null);
+                notSaved++;
+            } else if (code.join() == null) {
+                results[valid[i]] = new Result(ResponseStatus.TOOMANY, null);
+            } else {
+                results[valid[i]] = new Result(ResponseStatus.OK, code.join());
+                encrypted++;
+            }
+        }
+        String message = String.format(
+                "[%s] encrypted %d of %d creditcards successfully!\n",
+                currentUser, encrypted, cardNumbers.length);
+        GraphicServer.displayMessage(message);
+        if (notSaved > 0) {
+            GraphicServer.displayMessage(String.format(
+                    "[%s] %d creditcards NOT saved!\n",
+                    currentUser, notSaved));
+        }
+        return results;
+    }
+
+    /**
+     * Decrypt credit card code.
+     *
+     * @param cardCode
+     * @return the number, or the reason it is not decrypted
+     */
+    Result decryptCard(String cardCode) {
+        if (!currentUser.getAccess().isAbleToRequestCard()) {
+            return new Result(ResponseStatus.NOACCESS, null);
+        } else if (!CreditCardManager.cardExistsByCode(cardCode)) {
+            return new Result(ResponseStatus.NOCARD, null);
+        }
+        String creditCardNumber = CreditCardManager.decrypt(cardCode);
+        String message = String.format(
+                "[%s] decrypted creditcard with code [%s] successfully!\n",
+                currentUser, cardCode);
+        GraphicServer.displayMessage(message);
+        return new Result(ResponseStatus.OK, creditCardNumber);
+    }
+
+    /**
+     * Decrypt a batch of credit card codes, and report the batch in one
+     * message.
+     *
+     * @param cardCodes
+     * @return result of every code, in the order of the codes
+     */
+    Result[] decryptCards(String[] cardCodes) {
+        Result[] results = new Result[cardCodes.length];
+        if (!currentUser.getAccess().isAbleToRequestCard()) {
+            Arrays.fill(results, new Result(ResponseStatus.NOACCESS, null));
+            return results;
+        }
+        String[] numbers = CreditCardManager.decrypt(cardCodes);
+        int decrypted = 0;
+        for (int i = 0; i < cardCodes.length; i++) {
+            if (numbers[i] == null) {
+                results[i] = new Result(ResponseStatus.NOCARD, null);
+            } else {
+                results[i] = new Result(ResponseStatus.OK, numbers[i]);
+                decrypted++;
+            }
+        }
+        String message = String.format(
+                "[%s] decrypted %d of %d creditcards successfully!\n",
+                currentUser, decrypted, cardCodes.length);
+        GraphicServer.displayMessage(message);
+        return results;
+    }
+
+}
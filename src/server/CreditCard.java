@@ -1,39 +1,94 @@
 package server;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
- * Credit Card is presented as a ArrayList of her codes.
+ * Credit Card is presented as an array of her codes, at most MAX_CODES of
+ * them. The array is never changed - adding a code replaces it with a longer
+ * copy, so codes are read without locking and without copying. XStream saves
+ * the array the same way it saved the old ArrayList of codes.
  *
  * @author petar
  */
 public class CreditCard {
 
-    private ArrayList<String> creditCardCodes;
+    /**
+     * Maximum count of codes of a credit card.
+     */
+    public static final int MAX_CODES = 12;
+
+    private static final String[] NO_CODES = new String[0];
+
+    private volatile String[] creditCardCodes;
 
     /**
      * Create a credit card.
      */
     public CreditCard() {
-        creditCardCodes = new ArrayList<>();
+        creditCardCodes = NO_CODES;
     }
 
     /**
-     * Get codes of the credit card.
+     * Get codes of the credit card. The list is a copy, use codeAt and getSize
+     * to read the codes without copying.
      *
      * @return ArrayList
      */
     public ArrayList<String> getCreditCardCodes() {
-        return new ArrayList<>(creditCardCodes);
+        return new ArrayList<>(Arrays.asList(creditCardCodes));
+    }
+
+    /**
+     * Get the code at a given position.
+     *
+     * @param index
+     * @return code of the credit card.
+     */
+    public String codeAt(int index) {
+        return creditCardCodes[index];
+    }
+
+    /**
+     * Get the first code of the card - the number encrypted with the standart
+     * offset.
+     *
+     * @return first code, or null if the card has no codes.
+     */
+    public String canonicalCode() {
+        String[] codes = creditCardCodes;
+        return (codes.length == 0) ? null : codes[0];
+    }
+
+    /**
+     * Check if the card has a given code.
+     *
+     * @param code
+     * @return true if the card has the code, false - otherwise
+     */
+    public boolean containsCode(String code) {
+        for (String cardCode : creditCardCodes) {
+            if (cardCode.equals(code)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Add a new code to the card.
      *
      * @param code
+     * @throws IllegalStateException if the card has MAX_CODES codes already
      */
-    public void addCreditCardCode(String code) {
-        creditCardCodes.add(code);
+    public synchronized void addCreditCardCode(String code) {
+        String[] codes = creditCardCodes;
+        if (codes.length >= MAX_CODES) {
+            throw new IllegalStateException("Too many codes of a card");
+        }
+        codes = Arrays.copyOf(codes, codes.length + 1);
+        codes[codes.length - 1] = code;
+        creditCardCodes = codes;
     }
 
     /**
@@ -42,12 +97,13 @@ public class CreditCard {
      * @return number of codes.
      */
     public int getSize() {
-        return creditCardCodes.size();
+        return creditCardCodes.length;
     }
 
     @Override
     public String toString() {
-        String formatMessage = String.format("Credit card codes:%s", creditCardCodes.toString());
+        String formatMessage = String.format("Credit card codes:%s",
+                Arrays.toString(creditCardCodes));
         return formatMessage;
     }
 
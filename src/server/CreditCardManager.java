@@ -1,14 +1,39 @@
 package server;
 
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.DomDriver;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 /**
  *
@@ -17,8 +42,42 @@ import java.util.stream.Collectors;
 public final class CreditCardManager {
 
     private static File file;
-    private static CreditCardDataBase cardsDataBase;
     private static CryptAlgorithm algorithm;
+    // cards in memory, indexed by code and by first code (number encrypted
+    // with the standart offset)
+    private static CardStore store;
+    private static PersistenceSettings settings;
+    // cards saved in a binary snapshot, cards in the store are newer
+    private static CardSnapshot snapshot;
+    private static volatile int loadedCards;
+    private static volatile CardJournal journal;
+    // encryption of a card holds the lock of its stripe(chosen by the first
+    // code), so different cards are encrypted in parallel
+    private static final ReentrantLock[] stripes = new ReentrantLock[256];
+    // held while the file is saved or compacted(a lock, not synchronized, so
+    // a virtual thread saving the file is not pinned to its carrier)
+    private static final ReentrantLock saveLock = new ReentrantLock();
+    private static final AtomicBoolean compactionScheduled
+            = new AtomicBoolean(false);
+    private static final ExecutorService compactor
+            = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cards-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    static {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * How many times a single card can be encrypted.
+     */
+    public static final int MAX_CODES_PER_CARD = CreditCard.MAX_CODES;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
 
     /**
      * private constructor
@@ -30,27 +89,96 @@ public final class CreditCardManager {
      * Initialize CreditCardManager's instance using a filename and a
      * CryptAlgorithm. File should be empty or contain XML formatted
      * CreditCards(using XStream). If the file don't exists, it will be created.
+     * The whole file is saved again on every encryption.
      *
      * @param filename
      * @param algorithm provides the encryption/decryption algorithm
      */
     public static void initialize(String filename, CryptAlgorithm algorithm) {
+        initialize(filename, algorithm,
+                new PersistenceSettings(PersistenceMode.SNAPSHOT));
+    }
+
+    /**
+     * Initialize CreditCardManager's instance using a filename, a
+     * CryptAlgorithm and persistence settings. In JOURNAL and GROUP_COMMIT
+     * mode new codes are appended to filename.journal, which is replayed on top
+     * of the file here and merged into it in the background. With BINARY
+     * snapshot format the file is a CardSnapshot, only new and changed cards
+     * are loaded in memory. The store type from the settings chooses where
+     * cards are kept in memory.
+     *
+     * @param filename
+     * @param algorithm provides the encryption/decryption algorithm
+     * @param settings how new codes are saved
+     */
+    public static void initialize(String filename, CryptAlgorithm algorithm,
+            PersistenceSettings settings) {
+        close();
         CreditCardManager.algorithm = algorithm;
+        CreditCardManager.settings = settings;
         file = new File(filename);
-        loadFromXML();
+        snapshot = null;
+        store = (settings.getStoreType() == CardStoreType.OFF_HEAP)
+                ? new OffHeapCardStore() : new HeapCardStore();
+        if (settings.getSnapshotFormat() == SnapshotFormat.BINARY) {
+            loadFromSnapshot();
+        } else {
+            loadFromXML();
+        }
+        if (settings.getMode() != PersistenceMode.SNAPSHOT) {
+            openJournal();
+        }
+    }
+
+    /**
+     * Get the count of cards loaded from the XML file so far. Can be called
+     * from another thread while initialize is loading.
+     *
+     * @return
+     */
+    public static int getLoadedCardCount() {
+        return loadedCards;
+    }
+
+    /**
+     * Get the average fill of the journal batches, committed records per batch
+     * divided by the maximum batch size.
+     *
+     * @return value between 0 and 1, 0 if there is no journal
+     */
+    public static double getAverageBatchFill() {
+        CardJournal current = journal;
+        return (current == null) ? 0 : current.getAverageBatchFill();
+    }
+
+    /**
+     * Merge the journal(if any) into the file and close it. Should be
+     * called when the server is stopped.
+     */
+    public static void close() {
+        if (journal == null) {
+            return;
+        }
+        compact();
+        try {
+            journal.close();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        journal = null;
     }
 
     /**
      * Check if a string is valid for a credit card number. Number can contain
-     * digits and whitespace. Should start with 3,4,5,6. Minimum length 16
-     * symbols, maximum 19 symbols. And LuhnAlgorithm valid!
+     * digits and whitespace. Minimum length 16 symbols, maximum 19 symbols.
+     * The network(first digits) is checked by BinTableManager.
      *
      * @param name
      * @return true if is valid, false - otherwise.
      */
     public static boolean isValidNumber(String name) {
-        final String CARD_PATTERN = "^[3-6]{1}[0-9 ]{15,18}$";
-        return name.matches(CARD_PATTERN);
+        return CardValidator.validate(name) != ValidationResult.INVALID;
     }
 
     /**
@@ -60,100 +188,160 @@ public final class CreditCardManager {
      * @return true if is valid, false - otherwise.
      */
     public static boolean isLuhnAlgorithmValid(String number) {
-        number = number.replace(" ", "");
-        int oddSum = 0, evenSum = 0;
-        String reverse = new StringBuffer(number).reverse().toString();
-        for (int i = 0; i < reverse.length(); i++) {
-            int digit = Character.digit(reverse.charAt(i), 10);
-            if (i % 2 == 0) {
-                //this is for odd digits, they are 1-indexed in the algorithm
-                oddSum += digit;
-            } else {
-                //add 2 * digit for 0-4, add 2 * digit - 9 for 5-9
-                evenSum += 2 * digit;
-                if (digit >= 5) {
-                    evenSum -= 9;
-                }
-            }
-        }
-        return (oddSum + evenSum) % 10 == 0;
+        return CardValidator.isLuhnValid(number);
     }
 
     /**
      * Save credit cards in file in table format and sorted by credit card
-     * number
+     * number. Every card is decrypted once(number == first code decrypted with
+     * the standart offset), then the cards are sorted by the numbers in
+     * parallel, or with an external merge sort if the settings give an export
+     * run size.
      *
      * @param filename
      * @return false if it can't access file, or can't create new one, true -
      * otherwise
      */
     public static boolean saveCardsInFileSortedByNumber(String filename) {
-        try (PrintWriter writer = new PrintWriter(new File(filename))) {
-            writer.printf("%-19s - %19s",
-                    "Credit Card Code", "Credit Card Number");
-            writer.println();
-            ArrayList<CreditCard> cards = new ArrayList<>(
-                    // sort cards by their number
-                    cardsDataBase.getCreditCards().stream()
-                    .sorted((CreditCard t, CreditCard t1)
-                            //get number == get first code and decrypt it, using standart offset
-                            -> decryptCard(t.getCreditCardCodes().get(0),
-                                    algorithm.getStandartOffset())
-                            .compareTo(
-                                    decryptCard(t1.getCreditCardCodes().get(0),
-                                            algorithm.getStandartOffset())))
-                    .collect(Collectors.toList()));
-            for (CreditCard card : cards) {
-                String creditCardNumber = decryptCard(
-                        card.getCreditCardCodes().get(0),
-                        algorithm.getStandartOffset());
-                for (String cardCode : card.getCreditCardCodes()) {
-                    writer.printf("%-19s - %19s", cardCode, creditCardNumber);
-                    writer.println();
+        if (settings.getExportRunSize() > 0) {
+            return saveCardsSorted(filename, true);
+        }
+        CreditCard[] cards = allCards().toArray(CreditCard[]::new);
+        String[] firstCodes = new String[cards.length];
+        for (int i = 0; i < cards.length; i++) {
+            firstCodes[i] = cards[i].canonicalCode();
+        }
+        int[] offsets = new int[cards.length];
+        Arrays.fill(offsets, algorithm.getStandartOffset());
+        String[] numbers = decryptCards(firstCodes, offsets);
+        Integer[] order = new Integer[cards.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.parallelSort(order, (Integer t, Integer t1)
+                -> numbers[t].compareTo(numbers[t1]));
+        try (Writer writer = newExportWriter(filename)) {
+            for (int index : order) {
+                CreditCard card = cards[index];
+                for (int i = 0; i < card.getSize(); i++) {
+                    writeRow(writer, card.codeAt(i), numbers[index]);
                 }
             }
-            writer.flush();
             return true;
-        } catch (FileNotFoundException ex) {
+        } catch (IOException ex) {
             return false;
         }
     }
 
     /**
      * Save credit cards in file in table format and sorted by credit card codes
+     * (with an external merge sort if the settings give an export run size).
      *
      * @param filename
      * @return false if it can't access file, or can't create new one, true -
      * otherwise
      */
     public static boolean saveCardsInFileSortedByCode(String filename) {
-        try (PrintWriter writer = new PrintWriter(new File(filename))) {
-            writer.printf("%-19s - %19s",
-                    "Credit Card Code", "Credit Card Number");
-            writer.println();
+        if (settings.getExportRunSize() > 0) {
+            return saveCardsSorted(filename, false);
+        }
+        try (Writer writer = newExportWriter(filename)) {
             TreeMap<String, String> codeNumberSorted = new TreeMap<>();
             // push all <code,number> in a sorted map
-            for (CreditCard card : cardsDataBase.getCreditCards()) {
-                String creditCardNumber = decryptCard(
-                        card.getCreditCardCodes().get(0),
+            for (CreditCard card : (Iterable<CreditCard>) allCards()::iterator) {
+                String creditCardNumber = decryptCard(card.canonicalCode(),
                         algorithm.getStandartOffset());
-                for (String code : card.getCreditCardCodes()) {
-                    codeNumberSorted.put(code, creditCardNumber);
+                for (int i = 0; i < card.getSize(); i++) {
+                    codeNumberSorted.put(card.codeAt(i), creditCardNumber);
                 }
             }
             for (Map.Entry<String, String> entry : codeNumberSorted.entrySet()) {
-                String code = entry.getKey();
-                String number = entry.getValue();
-                writer.printf("%-19s - %19s", code, number);
-                writer.println();
+                writeRow(writer, entry.getKey(), entry.getValue());
+            }
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Save credit cards in file in table format, sorted with an external merge
+     * sort - only a run of rows is kept in memory.
+     *
+     * @param filename
+     * @param byNumber true to sort by number, false - by code
+     * @return false if it can't access file, or can't create new one, true -
+     * otherwise
+     */
+    private static boolean saveCardsSorted(String filename, boolean byNumber) {
+        File directory = new File(filename).getAbsoluteFile().getParentFile();
+        try (ExternalSorter sorter = new ExternalSorter(directory,
+                settings.getExportRunSize())) {
+            for (CreditCard card : (Iterable<CreditCard>) allCards()::iterator) {
+                String creditCardNumber = decryptCard(card.canonicalCode(),
+                        algorithm.getStandartOffset());
+                for (int i = 0; i < card.getSize(); i++) {
+                    // the codes of a card keep their order on equal numbers
+                    if (byNumber) {
+                        sorter.add(creditCardNumber, card.codeAt(i));
+                    } else {
+                        sorter.add(card.codeAt(i), creditCardNumber);
+                    }
+                }
+            }
+            try (Writer writer = newExportWriter(filename)) {
+                if (byNumber) {
+                    sorter.sort((String number, String code)
+                            -> writeRow(writer, code, number));
+                } else {
+                    sorter.sort((String code, String number)
+                            -> writeRow(writer, code, number));
+                }
             }
-            writer.flush();
             return true;
-        } catch (FileNotFoundException ex) {
+        } catch (IOException ex) {
             return false;
         }
     }
 
+    /**
+     * Open a file for a table of codes and numbers and write the header of the
+     * table.
+     *
+     * @param filename
+     * @return buffered writer
+     * @throws IOException
+     */
+    private static Writer newExportWriter(String filename) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(filename)), 1 << 20);
+        writeRow(writer, "Credit Card Code", "Credit Card Number");
+        return writer;
+    }
+
+    /**
+     * Write a row of the table: code padded to the left and number padded to
+     * the right, as "%-19s - %19s".
+     *
+     * @param writer
+     * @param code
+     * @param number
+     * @throws IOException
+     */
+    private static void writeRow(Writer writer, String code, String number)
+            throws IOException {
+        writer.write(code);
+        for (int i = code.length(); i < 19; i++) {
+            writer.write(' ');
+        }
+        writer.write(" - ");
+        for (int i = number.length(); i < 19; i++) {
+            writer.write(' ');
+        }
+        writer.write(number);
+        writer.write(LINE_SEPARATOR);
+    }
+
     /**
      * Check if credit card with a given code exists in the database.
      *
@@ -161,8 +349,18 @@ public final class CreditCardManager {
      * @return true if exists, false - otherwise.
      */
     public static boolean cardExistsByCode(String code) {
-        return cardsDataBase.getCreditCards().stream()
-                .anyMatch(card -> card.getCreditCardCodes().contains(code));
+        CardNumber cardCode = CardNumber.parse(code);
+        return cardCode != null && cardExistsByCode(cardCode);
+    }
+
+    /**
+     * Check if credit card with a given code exists in the database.
+     *
+     * @param code
+     * @return true if exists, false - otherwise.
+     */
+    public static boolean cardExistsByCode(CardNumber code) {
+        return getFirstCodeByCode(code) != null;
     }
 
     /**
@@ -173,31 +371,80 @@ public final class CreditCardManager {
      * @return true if card size < 12, otherwize false
      */
     public static boolean cardCodesSizeSmallerThanTwelve(String number) {
-        if (!cardExistsByNumber(number)) {
-            return true;
-        }
-        return getCardByNumber(number).getSize() < 12;
+        return cardCodesSizeSmallerThanTwelve(CardNumber.of(number));
+    }
+
+    /**
+     * Check if credit card with a given number is encrypted less than twelve
+     * times.
+     *
+     * @param number
+     * @return true if card size < 12, otherwize false
+     */
+    public static boolean cardCodesSizeSmallerThanTwelve(CardNumber number) {
+        return getSize(cryptCard(number, algorithm.getStandartOffset()))
+                < MAX_CODES_PER_CARD;
     }
 
     /**
      * Encrypt a credit card with given number, and add it to the database.
+     * The number is encrypted with the standart offset only once, that code is
+     * used both to find the card and as the code of a new card. Checking the
+     * count of codes and adding the new code is atomic - it is done under the
+     * lock of the card's stripe. Returns when the new code is saved.
+     *
+     * If the code can't be saved, it is still in memory - the next codes of
+     * the card are counted after it, so it can't be taken back. It is lost
+     * on restart, unless a later save of the whole database(the next
+     * encryption in SNAPSHOT mode, the next compaction with a journal)
+     * succeeds. The caller must not hand it out.
      *
      * @param number
-     * @return Code of the credit card.
-     */
-    public static String encrypt(String number) {
-        CreditCard card = getCardByNumber(number);
-        int offset = (card == null) ? 0 : card.getSize();
-        offset = (offset + algorithm.getStandartOffset()) % 16;
-        String cardCode = cryptCard(number, offset);
-        if (card != null) {
-            card.addCreditCardCode(cardCode);
-        } else {
-            card = new CreditCard();
-            card.addCreditCardCode(cardCode);
-            cardsDataBase.addCreditCard(card);
+     * @return Code of the credit card, or null if the card is already
+     * encrypted twelve times.
+     * @throws IOException if the code is not saved
+     */
+    public static String encrypt(String number) throws IOException {
+        CardNumber cardCode = encrypt(CardNumber.of(number));
+        return (cardCode == null) ? null : cardCode.toString();
+    }
+
+    /**
+     * Encrypt a credit card with given number, and add it to the database.
+     * Same as encrypt(String), without converting to strings.
+     *
+     * @param number
+     * @return Code of the credit card, or null if the card is already
+     * encrypted twelve times.
+     * @throws IOException if the code is not saved
+     */
+    public static CardNumber encrypt(CardNumber number) throws IOException {
+        CardNumber firstCode = cryptCard(number, algorithm.getStandartOffset());
+        CardNumber cardCode;
+        CompletableFuture<Void> saved;
+        ReentrantLock lock = getStripe(firstCode);
+        lock.lock();
+        try {
+            int size = getSizeForUpdate(firstCode);
+            if (size >= MAX_CODES_PER_CARD) {
+                return null;
+            }
+            int offset = (size + algorithm.getStandartOffset()) % 16;
+            cardCode = (offset == algorithm.getStandartOffset())
+                    ? firstCode : cryptCard(number, offset);
+            // the first code of a new card is the new code
+            CardNumber cardFirstCode = (size == 0) ? cardCode : firstCode;
+            store.addCode(cardFirstCode, cardCode);
+            saved = persist(cardFirstCode, cardCode);
+        } finally {
+            lock.unlock();
+        }
+        // wait outside of the lock, so other encryptions join the same batch
+        try {
+            saved.join();
+        } catch (CompletionException ex) {
+            throw new IOException("Code is not saved", ex.getCause());
         }
-        exportToXML();
         return cardCode;
     }
 
@@ -208,88 +455,481 @@ public final class CreditCardManager {
      * @return Number of the credit card.
      */
     public static String decrypt(String code) {
-        CreditCard card = getCardByCode(code);
-        return decryptCard(card.getCreditCardCodes().get(0),
+        return decrypt(CardNumber.of(code)).toString();
+    }
+
+    /**
+     * Decrypt a credit card with given code.
+     *
+     * @param code
+     * @return Number of the credit card.
+     */
+    public static CardNumber decrypt(CardNumber code) {
+        return decryptCard(getFirstCodeByCode(code),
                 algorithm.getStandartOffset());
     }
 
     /**
-     * Loads a database of credit cards from the file given to the constructor.
+     * Encrypt a batch of credit cards, and add them to the database. The
+     * numbers are encrypted with the standart offset together, every card is
+     * then updated under the lock of its stripe like in encrypt(String), and
+     * the new codes are saved together - one group commit of the journal, or
+     * one save of the whole database. Returns when all codes are saved, or
+     * have failed to save(see encrypt(String) for the codes that are not
+     * saved).
+     *
+     * @param numbers valid credit card numbers
+     * @return codes in the order of the numbers, all completed - with null for
+     * the cards that are already encrypted twelve times, or exceptionally for
+     * the codes that are not saved.
      */
-    private static void loadFromXML() {
-        if (file.exists() && !file.isDirectory()) {
-            XStream xstream = new XStream(new DomDriver());
-            xstream
-                    .alias("CreditCardDataBase", CreditCardDataBase.class
-                    );
-            xstream.alias(
-                    "CreditCard", CreditCard.class
-            );
-            cardsDataBase = (CreditCardDataBase) xstream.fromXML(file);
-        } else {
-            cardsDataBase = new CreditCardDataBase();
+    public static List<CompletableFuture<String>> encrypt(String[] numbers) {
+        int[] offsets = new int[numbers.length];
+        Arrays.fill(offsets, algorithm.getStandartOffset());
+        String[] firstCodes = cryptCards(numbers, offsets);
+        List<CompletableFuture<String>> codes = new ArrayList<>(numbers.length);
+        boolean journaled = journal != null;
+        boolean added = false;
+        for (int i = 0; i < numbers.length; i++) {
+            CardNumber number = CardNumber.of(numbers[i]);
+            CardNumber firstCode = CardNumber.of(firstCodes[i]);
+            ReentrantLock lock = getStripe(firstCode);
+            lock.lock();
+            try {
+                int size = getSizeForUpdate(firstCode);
+                if (size >= MAX_CODES_PER_CARD) {
+                    codes.add(CompletableFuture.completedFuture(null));
+                    continue;
+                }
+                int offset = (size + algorithm.getStandartOffset()) % 16;
+                CardNumber cardCode = (offset == algorithm.getStandartOffset())
+                        ? firstCode : cryptCard(number, offset);
+                CardNumber cardFirstCode = (size == 0) ? cardCode : firstCode;
+                store.addCode(cardFirstCode, cardCode);
+                String code = cardCode.toString();
+                // without a journal the database is saved once, at the end
+                codes.add(journaled
+                        ? persist(cardFirstCode, cardCode).thenApply(
+                                (Void saved) -> code)
+                        : CompletableFuture.completedFuture(code));
+                added = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (!journaled && added && !saveAll()) {
+            IOException ex = new IOException("Cannot save credit cards");
+            for (int i = 0; i < codes.size(); i++) {
+                if (codes.get(i).join() != null) {
+                    CompletableFuture<String> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(ex);
+                    codes.set(i, failed);
+                }
+            }
+        }
+        // wait for the journal without throwing, the failed codes stay failed
+        CompletableFuture.allOf(codes.toArray(new CompletableFuture<?>[0]))
+                .exceptionally((Throwable ex) -> null).join();
+        return codes;
+    }
+
+    /**
+     * Decrypt a batch of credit card codes. The cards are found one by one,
+     * and their first codes are decrypted together.
+     *
+     * @param codes
+     * @return numbers in the order of the codes, null for the codes without a
+     * card.
+     */
+    public static String[] decrypt(String[] codes) {
+        // indexes of the codes with a card, and the first codes of the cards
+        int[] found = new int[codes.length];
+        String[] firstCodes = new String[codes.length];
+        int count = 0;
+        for (int i = 0; i < codes.length; i++) {
+            CardNumber code = CardNumber.parse(codes[i]);
+            CardNumber firstCode = (code == null) ? null
+                    : getFirstCodeByCode(code);
+            if (firstCode != null) {
+                found[count] = i;
+                firstCodes[count] = firstCode.toString();
+                count++;
+            }
+        }
+        int[] offsets = new int[count];
+        Arrays.fill(offsets, algorithm.getStandartOffset());
+        String[] foundNumbers = decryptCards(
+                Arrays.copyOf(firstCodes, count), offsets);
+        String[] numbers = new String[codes.length];
+        for (int i = 0; i < count; i++) {
+            numbers[found[i]] = foundNumbers[i];
+        }
+        return numbers;
+    }
+
+    /**
+     * Save a new code according to the persistence mode - append it to the
+     * journal, or save the whole database.
+     *
+     * @param firstCode first code of the card
+     * @param code the new code
+     * @return completes when the code is saved, or exceptionally if it can't
+     * be saved
+     */
+    private static CompletableFuture<Void> persist(CardNumber firstCode,
+            CardNumber code) {
+        CardJournal current = journal;
+        if (current == null) {
+            return saveAll() ? CompletableFuture.completedFuture(null)
+                    : failed(new IOException("Cannot save credit cards"));
+        }
+        CompletableFuture<Void> saved;
+        try {
+            saved = current.append(firstCode.toString(), code.toString());
+        } catch (IOException ex) {
+            //cannot write to the journal
+            ex.printStackTrace();
+            saved = failed(ex);
+        }
+        if (current.getRecordCount() >= settings.getCompactionThreshold()
+                && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                compactionScheduled.set(false);
+                compact();
+            });
+        }
+        return saved;
+    }
+
+    private static CompletableFuture<Void> failed(IOException ex) {
+        CompletableFuture<Void> saved = new CompletableFuture<>();
+        saved.completeExceptionally(ex);
+        return saved;
+    }
+
+    /**
+     * Open the journal of the credit cards file, after replaying its records on top of
+     * the loaded database. If a previous compaction did not finish, its records
+     * are replayed too and the compaction is finished now.
+     */
+    private static void openJournal() {
+        File journalFile = getJournalFile("");
+        File rotatedFile = getJournalFile(".old");
+        try {
+            boolean unfinished = rotatedFile.exists();
+            CardJournal.replay(rotatedFile, CreditCardManager::replayCode);
+            int count = CardJournal.replay(journalFile,
+                    CreditCardManager::replayCode);
+            if (settings.getMode() == PersistenceMode.GROUP_COMMIT) {
+                journal = new CardJournal(journalFile, count,
+                        settings.getCommitIntervalMillis(),
+                        settings.getMaxBatchSize());
+            } else {
+                journal = new CardJournal(journalFile, count);
+            }
+            if (unfinished) {
+                compact();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot open journal", ex);
         }
     }
 
     /**
-     * Saves current database(in XML format, using XStream) to file given to the
-     * constructor.
+     * Add a code read from the journal. Codes already in the database are
+     * skipped, so a record can be replayed more than once.
+     *
+     * @param firstCode
+     * @param code
+     */
+    private static void replayCode(String firstCode, String code) {
+        CardNumber cardCode = CardNumber.of(code);
+        if (!cardExistsByCode(cardCode)) {
+            CardNumber cardFirstCode = CardNumber.of(firstCode);
+            getSizeForUpdate(cardFirstCode);
+            store.addCode(cardFirstCode, cardCode);
+        }
+    }
+
+    /**
+     * Merge the journal into the credit cards file: move the journal aside,
+     * save all cards, then delete the old journal - only after the saved file
+     * is synced to the disk, as the journal may be the only synced copy of
+     * the codes. A code is added to memory before it is appended to the
+     * journal, so every code in the old journal is saved. Codes added
+     * meanwhile may be both in the file and in the new journal, which is fine
+     * as replaying skips known codes. The snapshot in use is not changed, it
+     * is still valid under the cards in memory.
+     */
+    private static void compact() {
+        saveLock.lock();
+        try {
+            File rotatedFile = getJournalFile(".old");
+            try {
+                if (journal == null || (journal.getRecordCount() == 0
+                        && !rotatedFile.exists())) {
+                    return;
+                }
+                if (!rotatedFile.exists()) {
+                    journal.rotate(rotatedFile);
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                return;
+            }
+            if (saveAll()) {
+                rotatedFile.delete();
+            }
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    /**
+     * Save all cards(from memory and the binary snapshot, if any) in the credit
+     * cards file, in the format from the settings. The file is written to a
+     * temporary file first, which then replaces the old one, so the file is
+     * never left half written. Cards are written one by one as they are read
+     * from the store. The temporary file and then the directory(the rename)
+     * are synced to the disk before it returns true, so the journal can be
+     * deleted after that.
+     *
+     * @return true if saved, false - otherwise
      */
-    private static void exportToXML() {
-        try (PrintWriter writer = new PrintWriter(file.getAbsoluteFile())) {
-            XStream xstream = new XStream(new DomDriver());
-            xstream
-                    .alias("CreditCardDataBase", CreditCardDataBase.class
-                    );
-            xstream.alias(
-                    "CreditCard", CreditCard.class
-            );
-            xstream.toXML(cardsDataBase, writer);
-        } catch (FileNotFoundException ex) {
+    private static boolean saveAll() {
+        saveLock.lock();
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        try {
+            if (settings.getSnapshotFormat() == SnapshotFormat.XML) {
+                exportToXML(tempFile, allCards());
+            } else {
+                CardSnapshot.write(tempFile, allCards()::iterator);
+            }
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(),
+                    StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile.toPath(), file.getAbsoluteFile().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(file.getAbsoluteFile().getParentFile());
+            return true;
+        } catch (IOException | XMLStreamException ex) {
             //cannot create that file
             ex.printStackTrace();
+            return false;
+        } finally {
+            saveLock.unlock();
         }
+    }
 
+    /**
+     * Sync a directory to the disk, so a rename in it is not lost on a crash.
+     * Windows can't open directories, there NTFS keeps renames in its own
+     * journal.
+     *
+     * @param directory
+     * @throws IOException
+     */
+    private static void syncDirectory(File directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            if (!System.getProperty("os.name").startsWith("Windows")) {
+                throw ex;
+            }
+        }
     }
 
     /**
-     * Check if credit card with a given number exists in the database.
+     * Get a journal file of the credit cards file.
+     *
+     * @param suffix
+     * @return
+     */
+    private static File getJournalFile(String suffix) {
+        return new File(file.getAbsolutePath() + ".journal" + suffix);
+    }
+
+    /**
+     * Loads a database of credit cards from the file given to the constructor.
+     * The file is read with a streaming parser, every code is added to the
+     * store as soon as it is read, so only the cards(not the whole XML
+     * document) are kept in memory. The layout is the XStream one(a
+     * CreditCardDataBase element of CreditCard elements).
+     */
+    private static void loadFromXML() {
+        loadedCards = 0;
+        if (!file.exists() || file.isDirectory()) {
+            return;
+        }
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        try (InputStream input = new BufferedInputStream(
+                new FileInputStream(file), 1 << 16)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(input);
+            CardNumber firstCode = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT
+                        && reader.getLocalName().equals("string")) {
+                    // a code - the first one creates the card
+                    CardNumber code = CardNumber.of(reader.getElementText());
+                    if (firstCode == null) {
+                        firstCode = code;
+                    }
+                    store.addCode(firstCode, code);
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                        && reader.getLocalName().equals("CreditCard")) {
+                    firstCode = null;
+                    loadedCards++;
+                }
+            }
+            reader.close();
+        } catch (IOException | XMLStreamException ex) {
+            throw new RuntimeException("Cannot load credit cards", ex);
+        }
+    }
+
+    /**
+     * Opens the binary snapshot given to the constructor. Cards stay in the
+     * file until they are changed.
+     */
+    private static void loadFromSnapshot() {
+        try {
+            snapshot = (file.exists() && !file.isDirectory())
+                    ? CardSnapshot.open(file) : null;
+        } catch (IOException ex) {
+            throw new RuntimeException("Cannot open snapshot", ex);
+        }
+    }
+
+    /**
+     * All cards - cards from the binary snapshot(if any) that are not in the
+     * store, and then all cards in the store.
      *
-     * @param number
      * @return
      */
-    private static boolean cardExistsByNumber(String number) {
-        return cardsDataBase.getCreditCards().stream()
-                .anyMatch(card -> card.getCreditCardCodes()
-                        .get(0).equals(
-                                cryptCard(number,
-                                        algorithm.getStandartOffset())));
+    private static Stream<CreditCard> allCards() {
+        CardSnapshot base = snapshot;
+        Stream<CreditCard> saved = (base == null) ? Stream.empty()
+                : IntStream.range(0, base.getCardCount())
+                .filter(record
+                        -> store.getSize(CardNumber.of(base.getCode(record, 0))) == 0)
+                .mapToObj(base::getCard);
+        return Stream.concat(saved, store.getCreditCards());
     }
 
     /**
-     * Get credit card with a given code.
+     * Saves cards to a file in the XStream XML layout(a CreditCardDataBase
+     * element of CreditCard elements). The cards are written one by one, the
+     * database is never built in memory.
+     *
+     * @param target
+     * @param cards
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    private static void exportToXML(File target, Stream<CreditCard> cards)
+            throws IOException, XMLStreamException {
+        try (OutputStream output = new BufferedOutputStream(
+                new FileOutputStream(target), 1 << 16)) {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance()
+                    .createXMLStreamWriter(output, "UTF-8");
+            writer.writeStartElement("CreditCardDataBase");
+            writer.writeCharacters("\n  ");
+            writer.writeStartElement("creditCards");
+            for (CreditCard card : (Iterable<CreditCard>) cards::iterator) {
+                writer.writeCharacters("\n    ");
+                writer.writeStartElement("CreditCard");
+                writer.writeCharacters("\n      ");
+                writer.writeStartElement("creditCardCodes");
+                for (int i = 0; i < card.getSize(); i++) {
+                    writer.writeCharacters("\n        ");
+                    writer.writeStartElement("string");
+                    writer.writeCharacters(card.codeAt(i));
+                    writer.writeEndElement();
+                }
+                writer.writeCharacters("\n      ");
+                writer.writeEndElement();
+                writer.writeCharacters("\n    ");
+                writer.writeEndElement();
+            }
+            writer.writeCharacters("\n  ");
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.close();
+        }
+    }
+
+    /**
+     * Get the first code of the card that has a given code, from the store or
+     * from the binary snapshot.
      *
      * @param code
-     * @return Card or or null if there is no such card.
+     * @return first code, or null if there is no such card.
      */
-    private static CreditCard getCardByCode(String code) {
-        return cardsDataBase.getCreditCards().stream()
-                .filter(card -> card.getCreditCardCodes().contains(code))
-                .findFirst().orElse(null);
+    private static CardNumber getFirstCodeByCode(CardNumber code) {
+        CardNumber firstCode = store.getFirstCode(code);
+        if (firstCode == null && snapshot != null) {
+            int record = snapshot.findCard(code);
+            firstCode = (record == -1) ? null
+                    : CardNumber.of(snapshot.getCode(record, 0));
+        }
+        return firstCode;
     }
 
     /**
-     * Get credit card with a given number.
+     * Get the count of codes of a card, from the store or from the binary
+     * snapshot.
      *
-     * @param number
+     * @param firstCode
+     * @return count of codes, 0 if there is no such card.
+     */
+    private static int getSize(CardNumber firstCode) {
+        int size = store.getSize(firstCode);
+        if (size == 0 && snapshot != null) {
+            int record = snapshot.findCardByFirstCode(firstCode);
+            size = (record == -1) ? 0 : snapshot.getSize(record);
+        }
+        return size;
+    }
+
+    /**
+     * Get the count of codes of a card that is going to be changed. A card that
+     * is only in the binary snapshot is copied to the store first. The card
+     * should be locked.
+     *
+     * @param firstCode
+     * @return count of codes, 0 if there is no such card.
+     */
+    private static int getSizeForUpdate(CardNumber firstCode) {
+        int size = store.getSize(firstCode);
+        if (size == 0 && snapshot != null) {
+            int record = snapshot.findCardByFirstCode(firstCode);
+            if (record != -1) {
+                size = snapshot.getSize(record);
+                for (int i = 0; i < size; i++) {
+                    store.addCode(firstCode,
+                            CardNumber.of(snapshot.getCode(record, i)));
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get the lock of the stripe of a card.
+     *
+     * @param firstCode first code of the card
      * @return
      */
-    private static CreditCard getCardByNumber(String number) {
-        return cardsDataBase.getCreditCards().stream()
-                .filter(card -> card.getCreditCardCodes()
-                        .get(0).equals(cryptCard(number,
-                                        algorithm.getStandartOffset())))
-                .findFirst().orElse(null);
+    private static ReentrantLock getStripe(CardNumber firstCode) {
+        int hash = firstCode.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[hash & (stripes.length - 1)];
     }
 
     /**
@@ -315,4 +955,39 @@ public final class CreditCardManager {
         return algorithm.decrypt(creditCardCode, offset);
     }
 
+    private static CardNumber cryptCard(CardNumber creditCardNumber,
+            int offset) {
+        return algorithm.encrypt(creditCardNumber, offset);
+    }
+
+    private static CardNumber decryptCard(CardNumber creditCardCode,
+            int offset) {
+        return algorithm.decrypt(creditCardCode, offset);
+    }
+
+    /**
+     * Encrypt a batch of credit card numbers, each with its own offset. Large
+     * batches are split across the common ForkJoinPool. Cards are not added to
+     * the database.
+     *
+     * @param creditCardNumbers
+     * @param offsets an offset for every number
+     * @return credit card codes in the order of the numbers.
+     */
+    public static String[] cryptCards(String[] creditCardNumbers, int[] offsets) {
+        return algorithm.encrypt(creditCardNumbers, offsets);
+    }
+
+    /**
+     * Decrypt a batch of credit card codes, each with its own offset. Large
+     * batches are split across the common ForkJoinPool.
+     *
+     * @param creditCardCodes
+     * @param offsets an offset for every code
+     * @return credit card numbers in the order of the codes.
+     */
+    public static String[] decryptCards(String[] creditCardCodes, int[] offsets) {
+        return algorithm.decrypt(creditCardCodes, offsets);
+    }
+
 }
@@ -20,7 +20,11 @@ public interface CryptAlgorithm {
      * @param offset
      * @return
      */
-    String encrypt(String creditCardNumber, int offset);
+    default String encrypt(String creditCardNumber, int offset) {
+        char[] creditCardCode = new char[creditCardNumber.length()];
+        encrypt(creditCardNumber, offset, creditCardCode);
+        return new String(creditCardCode);
+    }
 
     /**
      * Decrypt credit card number with given offset.
@@ -29,6 +33,84 @@ public interface CryptAlgorithm {
      * @param offset
      * @return
      */
-    String decrypt(String creditCardCode, int offset);
+    default String decrypt(String creditCardCode, int offset) {
+        char[] creditCardNumber = new char[creditCardCode.length()];
+        decrypt(creditCardCode, offset, creditCardNumber);
+        return new String(creditCardNumber);
+    }
+
+    /**
+     * Encrypt credit card number with given offset.
+     *
+     * @param creditCardNumber
+     * @param offset
+     * @return
+     */
+    default CardNumber encrypt(CardNumber creditCardNumber, int offset) {
+        char[] creditCardCode = new char[creditCardNumber.length()];
+        encrypt(creditCardNumber, offset, creditCardCode);
+        return CardNumber.of(new String(creditCardCode));
+    }
+
+    /**
+     * Decrypt credit card code with given offset.
+     *
+     * @param creditCardCode
+     * @param offset
+     * @return
+     */
+    default CardNumber decrypt(CardNumber creditCardCode, int offset) {
+        char[] creditCardNumber = new char[creditCardCode.length()];
+        decrypt(creditCardCode, offset, creditCardNumber);
+        return CardNumber.of(new String(creditCardNumber));
+    }
+
+    /**
+     * Encrypt credit card number with given offset into a buffer, without
+     * allocating anything.
+     *
+     * @param creditCardNumber
+     * @param offset
+     * @param creditCardCode buffer, at least as long as the number
+     * @return count of chars written
+     */
+    int encrypt(CharSequence creditCardNumber, int offset, char[] creditCardCode);
+
+    /**
+     * Decrypt credit card code with given offset into a buffer, without
+     * allocating anything.
+     *
+     * @param creditCardCode
+     * @param offset
+     * @param creditCardNumber buffer, at least as long as the code
+     * @return count of chars written
+     */
+    int decrypt(CharSequence creditCardCode, int offset, char[] creditCardNumber);
+
+    /**
+     * Encrypt a batch of credit card numbers, each with its own offset. Large
+     * batches are done in parallel.
+     *
+     * @param creditCardNumbers
+     * @param offsets an offset for every number
+     * @return codes in the order of the numbers
+     */
+    default String[] encrypt(String[] creditCardNumbers, int[] offsets) {
+        return CryptBatch.run(creditCardNumbers, offsets,
+                CryptBatch.scalar(this, true));
+    }
+
+    /**
+     * Decrypt a batch of credit card codes, each with its own offset. Large
+     * batches are done in parallel.
+     *
+     * @param creditCardCodes
+     * @param offsets an offset for every code
+     * @return numbers in the order of the codes
+     */
+    default String[] decrypt(String[] creditCardCodes, int[] offsets) {
+        return CryptBatch.run(creditCardCodes, offsets,
+                CryptBatch.scalar(this, false));
+    }
 
 }
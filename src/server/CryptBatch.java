@@ -0,0 +1,118 @@
+package server;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Encrypts or decrypts a batch of credit card numbers(codes). Large batches
+ * are split in halves across the common ForkJoinPool, every part is done by a
+ * kernel.
+ *
+ * @author petar
+ */
+final class CryptBatch extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Encrypts or decrypts a part of a batch.
+     */
+    interface Kernel {
+
+        /**
+         * Encrypt(decrypt) input[from..to) into output[from..to).
+         *
+         * @param input
+         * @param offsets
+         * @param output
+         * @param from
+         * @param to
+         */
+        void crypt(String[] input, int[] offsets, String[] output, int from,
+                int to);
+    }
+
+    // batches up to that size are done in the calling thread
+    static final int THRESHOLD = 1024;
+
+    private final Kernel kernel;
+    private final String[] input;
+    private final int[] offsets;
+    private final String[] output;
+    private final int from;
+    private final int to;
+
+    private CryptBatch(Kernel kernel, String[] input, int[] offsets,
+            String[] output, int from, int to) {
+        this.kernel = kernel;
+        this.input = input;
+        this.offsets = offsets;
+        this.output = output;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Encrypt or decrypt a batch.
+     *
+     * @param input numbers to encrypt, or codes to decrypt
+     * @param offsets an offset for every number(code)
+     * @param kernel
+     * @return codes(numbers) in the order of the input
+     * @throws IllegalArgumentException if there is not an offset for every
+     * number(code)
+     */
+    static String[] run(String[] input, int[] offsets, Kernel kernel) {
+        if (input.length != offsets.length) {
+            throw new IllegalArgumentException("Expected " + input.length
+                    + " offsets, got " + offsets.length);
+        }
+        String[] output = new String[input.length];
+        CryptBatch batch = new CryptBatch(kernel, input, offsets, output, 0,
+                input.length);
+        if (input.length <= THRESHOLD) {
+            batch.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(batch);
+        }
+        return output;
+    }
+
+    /**
+     * A kernel that works for every algorithm - every number(code) is done
+     * with the char[] methods of the algorithm into one reused buffer, and
+     * its result string is created from the buffer.
+     *
+     * @param algorithm
+     * @param encrypt true to encrypt, false to decrypt
+     * @return kernel
+     */
+    static Kernel scalar(CryptAlgorithm algorithm, boolean encrypt) {
+        return (String[] input, int[] offsets, String[] output, int from,
+                int to) -> {
+            char[] buffer = new char[32];
+            for (int i = from; i < to; i++) {
+                if (buffer.length < input[i].length()) {
+                    buffer = new char[input[i].length()];
+                }
+                int length = encrypt
+                        ? algorithm.encrypt(input[i], offsets[i], buffer)
+                        : algorithm.decrypt(input[i], offsets[i], buffer);
+                output[i] = new String(buffer, 0, length);
+            }
+        };
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from > THRESHOLD) {
+            int middle = (from + to) >>> 1;
+            invokeAll(new CryptBatch(kernel, input, offsets, output, from,
+                    middle),
+                    new CryptBatch(kernel, input, offsets, output, middle, to));
+        } else {
+            kernel.crypt(input, offsets, output, from, to);
+        }
+    }
+
+}
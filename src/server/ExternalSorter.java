@@ -0,0 +1,200 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts (key, value) rows by key in bounded memory. Rows are collected in runs
+ * of a given size, every full run is sorted and saved in a temporary file, and
+ * at the end the runs are merged. Rows with equal keys keep the order they
+ * were added in.
+ *
+ * @author petar
+ */
+final class ExternalSorter implements Closeable {
+
+    /**
+     * Gets the sorted rows.
+     */
+    interface Output {
+
+        /**
+         * Write a row.
+         *
+         * @param key
+         * @param value
+         * @throws IOException
+         */
+        void write(String key, String value) throws IOException;
+    }
+
+    private static final Comparator<String[]> BY_KEY
+            = (String[] t, String[] t1) -> t[0].compareTo(t1[0]);
+
+    private final File directory;
+    private final int runSize;
+    private final ArrayList<String[]> run;
+    private final ArrayList<File> runFiles;
+
+    /**
+     * Create a sorter.
+     *
+     * @param directory where temporary files are created
+     * @param runSize count of rows kept in memory
+     */
+    ExternalSorter(File directory, int runSize) {
+        this.directory = directory;
+        this.runSize = runSize;
+        this.run = new ArrayList<>();
+        this.runFiles = new ArrayList<>();
+    }
+
+    /**
+     * Add a row. Saves a sorted run, if the run is full.
+     *
+     * @param key
+     * @param value
+     * @throws IOException
+     */
+    void add(String key, String value) throws IOException {
+        run.add(new String[]{key, value});
+        if (run.size() >= runSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Write all rows sorted by key.
+     *
+     * @param output
+     * @throws IOException
+     */
+    void sort(Output output) throws IOException {
+        if (runFiles.isEmpty()) {
+            // everything fits in memory
+            run.sort(BY_KEY);
+            for (String[] row : run) {
+                output.write(row[0], row[1]);
+            }
+            return;
+        }
+        spill();
+        merge(output);
+    }
+
+    /**
+     * Delete the temporary files.
+     */
+    @Override
+    public void close() {
+        for (File runFile : runFiles) {
+            runFile.delete();
+        }
+        runFiles.clear();
+        run.clear();
+    }
+
+    /**
+     * Sort the rows in memory and save them in a new temporary file.
+     *
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        run.sort(BY_KEY);
+        File runFile = File.createTempFile("cards", ".run", directory);
+        runFiles.add(runFile);
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(runFile), 1 << 16))) {
+            for (String[] row : run) {
+                output.writeUTF(row[0]);
+                output.writeUTF(row[1]);
+            }
+        }
+        run.clear();
+    }
+
+    /**
+     * Merge the saved runs. On equal keys the row from the earlier run goes
+     * first, so the order of adding is kept.
+     *
+     * @param output
+     * @throws IOException
+     */
+    private void merge(Output output) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(runFiles.size(),
+                (RunReader t, RunReader t1) -> {
+                    int compare = t.key.compareTo(t1.key);
+                    return (compare != 0) ? compare
+                            : Integer.compare(t.index, t1.index);
+                });
+        ArrayList<RunReader> readers = new ArrayList<>();
+        try {
+            for (int i = 0; i < runFiles.size(); i++) {
+                RunReader reader = new RunReader(runFiles.get(i), i);
+                readers.add(reader);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                output.write(reader.key, reader.value);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.input.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the rows of a saved run one by one.
+     */
+    private static final class RunReader {
+
+        private final DataInputStream input;
+        private final int index;
+        private String key;
+        private String value;
+
+        RunReader(File runFile, int index) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(runFile), 1 << 16));
+            this.index = index;
+        }
+
+        /**
+         * Read the next row.
+         *
+         * @return false if there are no more rows, true - otherwise
+         * @throws IOException
+         */
+        boolean next() throws IOException {
+            try {
+                key = input.readUTF();
+            } catch (EOFException ex) {
+                return false;
+            }
+            value = input.readUTF();
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+package server;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Format preserving encryption of the digits of a card number with AES - the
+ * FF1 mode of NIST SP 800-38G, radix 10. Only the digits are encrypted, every
+ * other char(the spaces) stays at its place, so a code looks like a number.
+ * The offset is the tweak, every offset gives different codes. Numbers should
+ * have 6 to 20 digits.
+ *
+ * A call takes a worker(a Cipher set up with the key once, and buffers) from a
+ * pool and gives it back, so a call allocates only the result. The pool grows
+ * to the count of concurrent calls, not to the count of threads - with a
+ * virtual thread per client a ThreadLocal would set up a Cipher per request.
+ *
+ * @author petar
+ */
+public class FF1Cipher implements CryptAlgorithm {
+
+    private static final int ROUNDS = 10;
+    private static final int MIN_DIGITS = 6;
+    private static final int MAX_DIGITS = 20;
+    private static final int TWEAK_LENGTH = 4;
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS / 2 + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final int standartOffset;
+    private final SecretKeySpec secretKey;
+    private final ConcurrentLinkedQueue<Worker> workers
+            = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create the cipher.
+     *
+     * @param key AES key - 16, 24 or 32 bytes
+     * @param standartOffset
+     * @throws IllegalArgumentException if the key is not a valid AES key
+     */
+    public FF1Cipher(byte[] key, int standartOffset) {
+        this.secretKey = new SecretKeySpec(key.clone(), "AES");
+        // fail here, not in the first encryption
+        workers.offer(new Worker(secretKey));
+        this.standartOffset = standartOffset;
+    }
+
+    @Override
+    public int getStandartOffset() {
+        return standartOffset;
+    }
+
+    @Override
+    public int encrypt(CharSequence creditCardNumber, int offset,
+            char[] creditCardCode) {
+        Worker worker = takeWorker();
+        try {
+            return worker.crypt(creditCardNumber, offset, creditCardCode, true);
+        } finally {
+            workers.offer(worker);
+        }
+    }
+
+    @Override
+    public int decrypt(CharSequence creditCardCode, int offset,
+            char[] creditCardNumber) {
+        Worker worker = takeWorker();
+        try {
+            return worker.crypt(creditCardCode, offset, creditCardNumber,
+                    false);
+        } finally {
+            workers.offer(worker);
+        }
+    }
+
+    /**
+     * Encrypt or decrypt digits with a given tweak. The digits are changed in
+     * place.
+     *
+     * @param digits values 0-9
+     * @param tweak
+     * @param encrypt
+     */
+    void crypt(byte[] digits, byte[] tweak, boolean encrypt) {
+        Worker worker = takeWorker();
+        try {
+            worker.crypt(digits, digits.length, tweak, tweak.length, encrypt);
+        } finally {
+            workers.offer(worker);
+        }
+    }
+
+    /**
+     * Take a free worker from the pool, or create one if all are in use.
+     *
+     * @return
+     */
+    private Worker takeWorker() {
+        Worker worker = workers.poll();
+        return (worker == null) ? new Worker(secretKey) : worker;
+    }
+
+    /**
+     * Cipher and buffers of a call, used by one call at a time.
+     */
+    private static final class Worker {
+
+        private final Cipher aes;
+        private final byte[] digits = new byte[MAX_DIGITS];
+        private final byte[] tweak = new byte[TWEAK_LENGTH];
+        private final byte[] block = new byte[16];
+        private final byte[] mac = new byte[16];
+        private final byte[] output = new byte[16];
+        private byte[] message = new byte[64];
+
+        Worker(SecretKeySpec key) {
+            try {
+                aes = Cipher.getInstance("AES/ECB/NoPadding");
+                aes.init(Cipher.ENCRYPT_MODE, key);
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalArgumentException("Cannot use the key", ex);
+            }
+        }
+
+        /**
+         * Encrypt or decrypt the digits of a text, other chars are copied.
+         */
+        int crypt(CharSequence input, int offset, char[] result,
+                boolean encrypt) {
+            int length = input.length();
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                char c = input.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    if (count == MAX_DIGITS) {
+                        throw new IllegalArgumentException(
+                                "Too many digits in " + input);
+                    }
+                    digits[count++] = (byte) (c - '0');
+                }
+            }
+            if (count < MIN_DIGITS) {
+                throw new IllegalArgumentException("Too few digits in "
+                        + input);
+            }
+            tweak[0] = (byte) (offset >>> 24);
+            tweak[1] = (byte) (offset >>> 16);
+            tweak[2] = (byte) (offset >>> 8);
+            tweak[3] = (byte) offset;
+            crypt(digits, count, tweak, TWEAK_LENGTH, encrypt);
+            count = 0;
+            for (int i = 0; i < length; i++) {
+                char c = input.charAt(i);
+                result[i] = (c >= '0' && c <= '9')
+                        ? (char) ('0' + digits[count++]) : c;
+            }
+            return length;
+        }
+
+        /**
+         * FF1 with radix 10 - a Feistel network of 10 rounds over the two
+         * halves of the digits, the round function is AES CBC-MAC.
+         */
+        void crypt(byte[] x, int n, byte[] t, int tweakLength,
+                boolean encrypt) {
+            if (n < MIN_DIGITS || n > MAX_DIGITS) {
+                throw new IllegalArgumentException("Expected " + MIN_DIGITS
+                        + " to " + MAX_DIGITS + " digits, got " + n);
+            }
+            int u = n / 2;
+            int v = n - u;
+            // bytes of a half as a number, and bytes taken from the MAC
+            int b = ((int) Math.ceil(v * Math.log(10) / Math.log(2)) + 7) / 8;
+            int d = 4 * ((b + 3) / 4) + 4;
+            int qLength = tweakLength + Math.floorMod(-tweakLength - b - 1, 16)
+                    + 1 + b;
+            if (message.length < 16 + qLength) {
+                message = new byte[16 + qLength];
+            }
+            // P
+            message[0] = 1;
+            message[1] = 2;
+            message[2] = 1;
+            message[3] = 0;
+            message[4] = 0;
+            message[5] = 10;
+            message[6] = 10;
+            message[7] = (byte) u;
+            putInt(message, 8, n);
+            putInt(message, 12, tweakLength);
+            // Q = tweak, zeros, round, half as a number
+            System.arraycopy(t, 0, message, 16, tweakLength);
+            for (int i = 16 + tweakLength; i < 16 + qLength - b - 1; i++) {
+                message[i] = 0;
+            }
+            long a = number(x, 0, u);
+            long c = number(x, u, n);
+            for (int round = 0; round < ROUNDS; round++) {
+                int i = encrypt ? round : ROUNDS - 1 - round;
+                int m = (i % 2 == 0) ? u : v;
+                long modulus = POWERS_OF_TEN[m];
+                long half = encrypt ? c : a;
+                message[16 + qLength - b - 1] = (byte) i;
+                for (int j = 0; j < b; j++) {
+                    message[16 + qLength - 1 - j] = (byte) (half >>> (8 * j));
+                }
+                long y = roundValue(16 + qLength, d, modulus);
+                if (encrypt) {
+                    long next = Math.floorMod(a + y, modulus);
+                    a = c;
+                    c = next;
+                } else {
+                    long previous = Math.floorMod(c - y, modulus);
+                    c = a;
+                    a = previous;
+                }
+            }
+            digits(a, x, 0, u);
+            digits(c, x, u, n);
+        }
+
+        /**
+         * R = CBC-MAC of the message, S = R || AES(R xor 1) || ..., y = first
+         * d bytes of S as a number, mod modulus.
+         */
+        private long roundValue(int messageLength, int d, long modulus) {
+            for (int i = 0; i < 16; i++) {
+                mac[i] = 0;
+            }
+            for (int offset = 0; offset < messageLength; offset += 16) {
+                for (int i = 0; i < 16; i++) {
+                    block[i] = (byte) (mac[i] ^ message[offset + i]);
+                }
+                aes(block, mac);
+            }
+            long y = 0;
+            for (int j = 0; j < d; j++) {
+                int index = j % 16;
+                byte[] s = mac;
+                if (j >= 16) {
+                    if (index == 0) {
+                        // the next 16 bytes of S
+                        int counter = j / 16;
+                        for (int i = 0; i < 16; i++) {
+                            block[i] = mac[i];
+                        }
+                        block[12] ^= (byte) (counter >>> 24);
+                        block[13] ^= (byte) (counter >>> 16);
+                        block[14] ^= (byte) (counter >>> 8);
+                        block[15] ^= (byte) counter;
+                        aes(block, output);
+                    }
+                    s = output;
+                }
+                y = (y * 256 + (s[index] & 0xFF)) % modulus;
+            }
+            return y;
+        }
+
+        private void aes(byte[] input, byte[] result) {
+            try {
+                aes.update(input, 0, 16, result, 0);
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        private static long number(byte[] x, int from, int to) {
+            long number = 0;
+            for (int i = from; i < to; i++) {
+                number = number * 10 + x[i];
+            }
+            return number;
+        }
+
+        private static void digits(long number, byte[] x, int from, int to) {
+            for (int i = to - 1; i >= from; i--) {
+                x[i] = (byte) (number % 10);
+                number /= 10;
+            }
+        }
+
+        private static void putInt(byte[] bytes, int offset, int value) {
+            bytes[offset] = (byte) (value >>> 24);
+            bytes[offset + 1] = (byte) (value >>> 16);
+            bytes[offset + 2] = (byte) (value >>> 8);
+            bytes[offset + 3] = (byte) value;
+        }
+    }
+
+}
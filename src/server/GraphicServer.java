@@ -24,9 +24,9 @@ public class GraphicServer {
 
     private static JFrame frame;
     private static JTextArea displayArea;
-    private final ThreadPooledServer[] servers;
+    private final CardServer[] servers;
 
-    public GraphicServer(ThreadPooledServer... servers) {
+    public GraphicServer(CardServer... servers) {
         this.servers = servers;
 
     }
@@ -35,19 +35,38 @@ public class GraphicServer {
 
         String USERSDATA_FILENAME = "users.xml";
         String CARDSDATA_FILENAME = "cards.xml";
+        String BINS_FILENAME = "bins.txt";
         int STANDART_OFFSET = 5;//offset for the algorithm
 
         UserManager.initialize(USERSDATA_FILENAME);
+        if (!BinTableManager.initialize(BINS_FILENAME)) {
+            JOptionPane.showMessageDialog(null,
+                    "Cannot load " + BINS_FILENAME + ", server is not started",
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+        }
         Algorithm algorithm = new Algorithm(STANDART_OFFSET);
         //choose algorithm
 //        CryptAlgorithm substitutionCipher = algorithm.substitutionCipher();
         CryptAlgorithm railFenceCipher = algorithm.railFenceCipher();
-        CreditCardManager.initialize(CARDSDATA_FILENAME, railFenceCipher);
-
-        ThreadPooledServer server = new ThreadPooledServer(9000);
-        ThreadPooledServer server2 = new ThreadPooledServer(9001);
-
-        GraphicServer graphicServer = new GraphicServer(server, server2);
+        CreditCardManager.initialize(CARDSDATA_FILENAME, railFenceCipher,
+                new PersistenceSettings(PersistenceMode.GROUP_COMMIT));
+
+        //choose server - a pool of threads, a virtual thread per client(Java
+        //21 or newer), or a few threads for all clients
+        CardServer server = new ThreadPooledServer(9000);
+        CardServer server2 = new ThreadPooledServer(9001);
+//        CardServer server = new ThreadPooledServer(9000, true);
+//        CardServer server2 = new ThreadPooledServer(9001, true);
+//        CardServer server = new SelectorServer(9000);
+//        CardServer server2 = new SelectorServer(9001);
+        //clients of the binary protocol, the ports above are for the old
+        //clients
+        CardServer binaryServer = new ThreadPooledServer(9002,
+                ProtocolType.BINARY, false);
+
+        GraphicServer graphicServer = new GraphicServer(server, server2,
+                binaryServer);
         System.out.println("Server Started");
         graphicServer.startServer();
 
@@ -65,11 +84,15 @@ public class GraphicServer {
     }
 
     /**
-     * Start all ThreadPooled servers
+     * Start all servers
      */
     public void startServer() {
         BuildGUI();
-        for (ThreadPooledServer server : servers) {
+        if (CreditCardManager.getLoadedCardCount() > 0) {
+            displayMessage(String.format("%d credit cards loaded\n",
+                    CreditCardManager.getLoadedCardCount()));
+        }
+        for (CardServer server : servers) {
             new Thread(server).start();
         }
     }
@@ -87,15 +110,17 @@ public class GraphicServer {
             @Override
             public void windowClosing(WindowEvent event) {
                 frame.dispose();
-                for (ThreadPooledServer server : servers) {
+                for (CardServer server : servers) {
                     server.stop();
                 }
+                CreditCardManager.close();
                 System.exit(0);
             }
         });
 
         frame.setLayout(new GridBagLayout());
         drawSortingInFilePanel();
+        drawBinRangesPanel();
         drawLogPanel();
 //        frame.pack();
         frame.setLocationRelativeTo(null);
@@ -122,6 +147,36 @@ public class GraphicServer {
 
     }
 
+    /**
+     * Draw the panel of the BIN ranges - a button to load the ranges file
+     * again, without restarting the server.
+     */
+    private void drawBinRangesPanel() {
+        JPanel pnlBinRanges = new JPanel(new GridBagLayout());
+        GridBagConstraints constraints = new GridBagConstraints();
+        pnlBinRanges.setBorder(BorderFactory.createTitledBorder("BIN ranges"));
+        JButton btnReload = new JButton("Reload BIN ranges");
+        btnReload.addActionListener((ActionEvent ae) -> {
+            if (BinTableManager.reload()) {
+                String message = String.format(
+                        "BIN ranges reloaded, %d prefixes\n",
+                        BinTableManager.getPrefixCount());
+                displayMessage(message);
+            } else {
+                JOptionPane.showMessageDialog(frame,
+                        "Invalid BIN ranges file!",
+                        "ERROR", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        constraints.gridx = 0;
+        constraints.gridy = 0;
+        pnlBinRanges.add(btnReload, constraints);
+
+        constraints.gridx = 0;
+        constraints.gridy = 2;
+        frame.add(pnlBinRanges, constraints);
+    }
+
     /**
      * Draw the panel to save cards sorted in a file. Two buttons - one to sort
      * based on card number, and the other to sort based on card codes.
@@ -0,0 +1,84 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Stream;
+
+/**
+ * CardStore that keeps the cards in the heap, as arrays of CardNumbers in hash
+ * maps. An array is never changed - adding a code replaces it with a longer
+ * copy, so it can be read while a code is added. Cards are exported in the
+ * order they were added, so saved files don't change order between runs.
+ *
+ * @author petar
+ */
+public class HeapCardStore implements CardStore {
+
+    // first code (number encrypted with the standart offset) -> codes
+    private final ConcurrentHashMap<CardNumber, CardNumber[]> cardsByFirstCode;
+    // code -> first code, so lookups by code don't scan all cards
+    private final ConcurrentHashMap<CardNumber, CardNumber> firstCodesByCode;
+    // first codes in the order the cards were added
+    private final ConcurrentLinkedQueue<CardNumber> firstCodes;
+
+    /**
+     * Create an empty store.
+     */
+    public HeapCardStore() {
+        cardsByFirstCode = new ConcurrentHashMap<>();
+        firstCodesByCode = new ConcurrentHashMap<>();
+        firstCodes = new ConcurrentLinkedQueue<>();
+    }
+
+    @Override
+    public CardNumber getFirstCode(CardNumber code) {
+        return firstCodesByCode.get(code);
+    }
+
+    @Override
+    public int getSize(CardNumber firstCode) {
+        CardNumber[] codes = cardsByFirstCode.get(firstCode);
+        return (codes == null) ? 0 : codes.length;
+    }
+
+    @Override
+    public void addCode(CardNumber firstCode, CardNumber code) {
+        CardNumber[] codes = cardsByFirstCode.get(firstCode);
+        boolean newCard = codes == null;
+        if (newCard) {
+            firstCode = code;
+            codes = new CardNumber[]{code};
+        } else if (codes.length >= CreditCard.MAX_CODES) {
+            throw new IllegalStateException("Card has too many codes: "
+                    + firstCode);
+        } else {
+            codes = Arrays.copyOf(codes, codes.length + 1);
+            codes[codes.length - 1] = code;
+        }
+        // the code is known only when its card has it
+        cardsByFirstCode.put(firstCode, codes);
+        firstCodesByCode.put(code, firstCode);
+        if (newCard) {
+            firstCodes.add(firstCode);
+        }
+    }
+
+    @Override
+    public int getCardCount() {
+        return cardsByFirstCode.size();
+    }
+
+    @Override
+    public Stream<CreditCard> getCreditCards() {
+        return firstCodes.stream().map((CardNumber firstCode) -> {
+            CardNumber[] codes = cardsByFirstCode.get(firstCode);
+            CreditCard card = new CreditCard();
+            for (CardNumber code : codes) {
+                card.addCreditCardCode(code.toString());
+            }
+            return card;
+        });
+    }
+
+}
@@ -0,0 +1,135 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Reads and writes Strings in the format of ObjectOutputStream without
+ * blocking, so the clients of the blocking server can talk to the
+ * SelectorServer. Only what the client sends is understood - the stream
+ * header, Strings, references to Strings that were sent before, and resets.
+ * Strings longer than 65535 bytes are rejected.
+ *
+ * @author petar
+ */
+final class ObjectStreamCodec {
+
+    // constants of java.io.ObjectStreamConstants
+    private static final short STREAM_MAGIC = (short) 0xaced;
+    private static final short STREAM_VERSION = 5;
+    private static final byte TC_REFERENCE = 0x71;
+    private static final byte TC_STRING = 0x74;
+    private static final byte TC_RESET = 0x79;
+    private static final int BASE_WIRE_HANDLE = 0x7e0000;
+    private static final int HEADER_LENGTH = 4;
+
+    private boolean headerRead;
+    // every String that was read gets the next handle
+    private final ArrayList<String> handles = new ArrayList<>();
+
+    /**
+     * Get the stream header that ObjectOutputStream writes first.
+     *
+     * @return
+     */
+    static ByteBuffer header() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putShort(STREAM_MAGIC).putShort(STREAM_VERSION);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Encode a String the way ObjectOutputStream.writeObject does.
+     *
+     * @param message
+     * @return
+     * @throws IOException if the String is longer than 65535 bytes
+     */
+    static ByteBuffer encode(String message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                message.length() + 3);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeByte(TC_STRING);
+        data.writeUTF(message);
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Read the next String of the buffer. If the String is not received
+     * completely, the buffer is left at its start.
+     *
+     * @param buffer received bytes, ready for reading
+     * @return the String, or null if more bytes are needed
+     * @throws IOException if the bytes are not a String the client can send
+     */
+    String decode(ByteBuffer buffer) throws IOException {
+        if (!headerRead) {
+            if (buffer.remaining() < HEADER_LENGTH) {
+                return null;
+            }
+            if (buffer.getShort() != STREAM_MAGIC
+                    || buffer.getShort() != STREAM_VERSION) {
+                throw new StreamCorruptedException("Invalid stream header");
+            }
+            headerRead = true;
+        }
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            byte tag = buffer.get();
+            switch (tag) {
+                case TC_RESET:
+                    handles.clear();
+                    break;
+                case TC_REFERENCE:
+                    if (buffer.remaining() < 4) {
+                        buffer.position(start);
+                        return null;
+                    }
+                    int handle = buffer.getInt() - BASE_WIRE_HANDLE;
+                    if (handle < 0 || handle >= handles.size()) {
+                        throw new StreamCorruptedException(
+                                "Invalid handle " + handle);
+                    }
+                    return handles.get(handle);
+                case TC_STRING:
+                    if (buffer.remaining() < 2) {
+                        buffer.position(start);
+                        return null;
+                    }
+                    int length = buffer.getShort() & 0xFFFF;
+                    if (buffer.remaining() < length) {
+                        buffer.position(start);
+                        return null;
+                    }
+                    String message = readUTF(buffer, start + 1, length);
+                    buffer.position(start + 3 + length);
+                    handles.add(message);
+                    return message;
+                default:
+                    throw new StreamCorruptedException(String.format(
+                            "Unexpected type code %02X", tag));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decode modified UTF-8 with its 2 byte length.
+     */
+    private static String readUTF(ByteBuffer buffer, int position, int length)
+            throws IOException {
+        byte[] bytes = new byte[2 + length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(position);
+        source.get(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+    }
+
+}
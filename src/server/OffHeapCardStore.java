@@ -0,0 +1,317 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * CardStore that keeps the codes outside of the heap, in direct buffers. Every
+ * card is a fixed width record(the same layout as in CardSnapshot) and the
+ * codes are indexed by an open addressing hash table of ints, also in direct
+ * buffers. So a card costs about 250 bytes of native memory instead of a few
+ * objects per code in the heap, and the garbage collector never sees the
+ * cards. The JVM should be started with enough -XX:MaxDirectMemorySize.
+ *
+ * Reading takes a read lock, adding a code takes a short write lock. There is
+ * one lock for the whole store(the codes of a card can be anywhere in the
+ * index, and the index is rebuilt when it grows), so it is a known limit that
+ * addCode runs one at a time even for cards of different stripes of
+ * CreditCardManager - encryptions still overlap in the cipher and the journal,
+ * but not here. HeapCardStore has no such limit.
+ *
+ * @author petar
+ */
+public final class OffHeapCardStore implements CardStore {
+
+    private static final int CODES = CardSnapshot.CODES;
+    private static final int SLOT_SIZE = CardSnapshot.SLOT_SIZE;
+    private static final int RECORD_SIZE = CardSnapshot.RECORD_SIZE;
+    // cards in a buffer of records
+    private static final int CHUNK_BITS = 16;
+    // index slots in a buffer of the index
+    private static final int INDEX_CHUNK_BITS = 26;
+
+    private final int chunkBits;
+    private final int chunkMask;
+    private final int indexChunkBits;
+    private final long indexChunkMask;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private ByteBuffer[] records = new ByteBuffer[0];
+    private int cardCount;
+    // slot = card * CODES + position of the code + 1, 0 is an empty slot
+    private ByteBuffer[] index;
+    private long indexMask;
+    private long usedSlots;
+
+    /**
+     * Create an empty store.
+     */
+    public OffHeapCardStore() {
+        this(1 << 16);
+    }
+
+    /**
+     * Create an empty store with room for a given count of codes, so the
+     * index is not resized while they are added.
+     *
+     * @param expectedCodes
+     */
+    public OffHeapCardStore(long expectedCodes) {
+        this(expectedCodes, CHUNK_BITS, INDEX_CHUNK_BITS);
+    }
+
+    /**
+     * Create an empty store with buffers of a given size.
+     *
+     * @param expectedCodes
+     * @param chunkBits log2 of the count of cards in a buffer of records
+     * @param indexChunkBits log2 of the count of slots in a buffer of the
+     * index
+     */
+    OffHeapCardStore(long expectedCodes, int chunkBits, int indexChunkBits) {
+        this.chunkBits = chunkBits;
+        chunkMask = (1 << chunkBits) - 1;
+        this.indexChunkBits = indexChunkBits;
+        indexChunkMask = (1L << indexChunkBits) - 1;
+        allocateIndex(Long.highestOneBit(Math.max(expectedCodes * 2, 8) - 1) << 1);
+    }
+
+    @Override
+    public CardNumber getFirstCode(CardNumber code) {
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(code);
+            return (slot == 0) ? null
+                    : CardNumber.of(readCode((slot - 1) / CODES, 0));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getSize(CardNumber firstCode) {
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(firstCode);
+            if (slot == 0 || (slot - 1) % CODES != 0) {
+                return 0;
+            }
+            return readSize((slot - 1) / CODES);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void addCode(CardNumber firstCode, CardNumber code) {
+        if (code.length() > CardSnapshot.CODE_WIDTH) {
+            throw new IllegalArgumentException("Code too long: " + code);
+        }
+        lock.writeLock().lock();
+        try {
+            if ((usedSlots + 1) * 2 > indexMask + 1) {
+                resizeIndex();
+            }
+            int slot = findSlot(firstCode);
+            int card;
+            int position;
+            if (slot == 0 || (slot - 1) % CODES != 0) {
+                card = newCard();
+                position = 0;
+            } else {
+                card = (slot - 1) / CODES;
+                position = readSize(card);
+                if (position == CODES) {
+                    throw new IllegalStateException(
+                            "Card has too many codes: " + firstCode);
+                }
+            }
+            writeCode(card, position, code);
+            record(card).put(recordOffset(card), (byte) (position + 1));
+            insert(code, card * CODES + position + 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int getCardCount() {
+        lock.readLock().lock();
+        try {
+            return cardCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Stream<CreditCard> getCreditCards() {
+        return IntStream.range(0, getCardCount()).mapToObj(this::getCard);
+    }
+
+    /**
+     * Read a whole card.
+     *
+     * @param card
+     * @return new CreditCard with all codes of the card
+     */
+    private CreditCard getCard(int card) {
+        lock.readLock().lock();
+        try {
+            CreditCard creditCard = new CreditCard();
+            int size = readSize(card);
+            for (int i = 0; i < size; i++) {
+                creditCard.addCreditCardCode(readCode(card, i));
+            }
+            return creditCard;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add an empty record, allocating a new buffer if the last one is full.
+     *
+     * @return the new card
+     */
+    private int newCard() {
+        if (cardCount == CardSnapshot.MAX_CARDS) {
+            throw new IllegalStateException("Off-heap card store is full");
+        }
+        int card = cardCount;
+        if ((card >>> chunkBits) == records.length) {
+            records = Arrays.copyOf(records, records.length + 1);
+            records[records.length - 1]
+                    = ByteBuffer.allocateDirect(RECORD_SIZE << chunkBits);
+        }
+        cardCount++;
+        return card;
+    }
+
+    private ByteBuffer record(int card) {
+        return records[card >>> chunkBits];
+    }
+
+    private int recordOffset(int card) {
+        return (card & chunkMask) * RECORD_SIZE;
+    }
+
+    private int readSize(int card) {
+        return record(card).get(recordOffset(card));
+    }
+
+    private String readCode(int card, int position) {
+        ByteBuffer buffer = record(card);
+        int offset = recordOffset(card) + 1 + position * SLOT_SIZE;
+        char[] code = new char[buffer.get(offset)];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = (char) buffer.get(offset + 1 + i);
+        }
+        return new String(code);
+    }
+
+    private void writeCode(int card, int position, CharSequence code) {
+        ByteBuffer buffer = record(card);
+        int offset = recordOffset(card) + 1 + position * SLOT_SIZE;
+        buffer.put(offset, (byte) code.length());
+        for (int i = 0; i < code.length(); i++) {
+            buffer.put(offset + 1 + i, (byte) code.charAt(i));
+        }
+    }
+
+    private boolean equalsCode(int slot, CharSequence code) {
+        int card = (slot - 1) / CODES;
+        ByteBuffer buffer = record(card);
+        int offset = recordOffset(card) + 1 + ((slot - 1) % CODES) * SLOT_SIZE;
+        if (buffer.get(offset) != code.length()) {
+            return false;
+        }
+        for (int i = 0; i < code.length(); i++) {
+            if (buffer.get(offset + 1 + i) != (byte) code.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getSlot(long bucket) {
+        return index[(int) (bucket >>> indexChunkBits)]
+                .getInt((int) (bucket & indexChunkMask) * 4);
+    }
+
+    private void setSlot(long bucket, int slot) {
+        index[(int) (bucket >>> indexChunkBits)]
+                .putInt((int) (bucket & indexChunkMask) * 4, slot);
+    }
+
+    /**
+     * Find the index slot of a code.
+     *
+     * @param code
+     * @return the slot value, 0 if there is no such code
+     */
+    private int findSlot(CharSequence code) {
+        for (long bucket = CardSnapshot.hash(code) & indexMask;;
+                bucket = (bucket + 1) & indexMask) {
+            int slot = getSlot(bucket);
+            if (slot == 0 || equalsCode(slot, code)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Put a code in the index, replacing the slot of an equal code.
+     *
+     * @param code
+     * @param slot
+     */
+    private void insert(CharSequence code, int slot) {
+        for (long bucket = CardSnapshot.hash(code) & indexMask;;
+                bucket = (bucket + 1) & indexMask) {
+            int current = getSlot(bucket);
+            if (current == 0) {
+                usedSlots++;
+                setSlot(bucket, slot);
+                return;
+            }
+            if (equalsCode(current, code)) {
+                setSlot(bucket, slot);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Allocate an empty index.
+     *
+     * @param slots power of two
+     */
+    private void allocateIndex(long slots) {
+        int chunks = (int) ((slots + indexChunkMask) >>> indexChunkBits);
+        index = new ByteBuffer[chunks];
+        for (int i = 0; i < chunks; i++) {
+            long size = Math.min(slots - ((long) i << indexChunkBits),
+                    indexChunkMask + 1);
+            index[i] = ByteBuffer.allocateDirect((int) size * 4);
+        }
+        indexMask = slots - 1;
+        usedSlots = 0;
+    }
+
+    /**
+     * Double the index and insert all codes again.
+     */
+    private void resizeIndex() {
+        allocateIndex((indexMask + 1) * 2);
+        for (int card = 0; card < cardCount; card++) {
+            int size = readSize(card);
+            for (int i = 0; i < size; i++) {
+                insert(readCode(card, i), card * CODES + i + 1);
+            }
+        }
+    }
+
+}
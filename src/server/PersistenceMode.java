@@ -0,0 +1,28 @@
+package server;
+
+/**
+ * How CreditCardManager saves new credit card codes to the disk.
+ *
+ * @author petar
+ */
+public enum PersistenceMode {
+
+    /**
+     * Rewrite the whole file of credit cards(XML or binary CardSnapshot, see
+     * SnapshotFormat) on every encryption.
+     */
+    SNAPSHOT,
+    /**
+     * Append every new code to a journal next to the file of credit cards. The
+     * journal is replayed on top of the file at startup and merged into it in
+     * the background. Every code is written to the journal as soon as it is
+     * created, but the journal is not synced to the disk.
+     */
+    JOURNAL,
+    /**
+     * Like JOURNAL, but codes created at the same time are written to the
+     * journal in batches and every batch is synced to the disk. An encryption
+     * is not answered until its batch is saved.
+     */
+    GROUP_COMMIT
+}
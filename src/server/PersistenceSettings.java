@@ -0,0 +1,182 @@
+package server;
+
+/**
+ * Settings for keeping the credit card database - where cards are kept in
+ * memory, persistence mode, format of the file, how often the journal is
+ * merged into the file, how the journal is committed in GROUP_COMMIT mode and
+ * how the sorted exports sort the cards.
+ *
+ * @author petar
+ */
+public class PersistenceSettings {
+
+    /**
+     * Default count of journal records before the journal is compacted.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+    /**
+     * Default time in milliseconds a batch waits for more records.
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL = 5;
+    /**
+     * Default maximum count of records in a batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private PersistenceMode mode;
+    private CardStoreType storeType;
+    private SnapshotFormat snapshotFormat;
+    private int compactionThreshold;
+    private long commitIntervalMillis;
+    private int maxBatchSize;
+    private int exportRunSize;
+
+    /**
+     * Create settings with given persistence mode and default values for
+     * everything else.
+     *
+     * @param mode
+     */
+    public PersistenceSettings(PersistenceMode mode) {
+        setMode(mode);
+        setStoreType(CardStoreType.HEAP);
+        setSnapshotFormat(SnapshotFormat.XML);
+        setCompactionThreshold(DEFAULT_COMPACTION_THRESHOLD);
+        setCommitIntervalMillis(DEFAULT_COMMIT_INTERVAL);
+        setMaxBatchSize(DEFAULT_MAX_BATCH_SIZE);
+        setExportRunSize(0);
+    }
+
+    /**
+     * Get persistence mode.
+     *
+     * @return
+     */
+    public PersistenceMode getMode() {
+        return mode;
+    }
+
+    /**
+     * Set persistence mode.
+     *
+     * @param mode
+     */
+    public void setMode(PersistenceMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Get where cards are kept in memory.
+     *
+     * @return
+     */
+    public CardStoreType getStoreType() {
+        return storeType;
+    }
+
+    /**
+     * Set where cards are kept in memory.
+     *
+     * @param storeType
+     */
+    public void setStoreType(CardStoreType storeType) {
+        this.storeType = storeType;
+    }
+
+    /**
+     * Get format of the credit cards file.
+     *
+     * @return
+     */
+    public SnapshotFormat getSnapshotFormat() {
+        return snapshotFormat;
+    }
+
+    /**
+     * Set format of the credit cards file.
+     *
+     * @param snapshotFormat
+     */
+    public void setSnapshotFormat(SnapshotFormat snapshotFormat) {
+        this.snapshotFormat = snapshotFormat;
+    }
+
+    /**
+     * Get count of journal records that triggers a compaction.
+     *
+     * @return
+     */
+    public int getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Set count of journal records that triggers a compaction - the journal is
+     * merged into the credit cards file and emptied.
+     *
+     * @param compactionThreshold
+     */
+    public void setCompactionThreshold(int compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Get the time in milliseconds a batch waits for more records before it is
+     * committed.
+     *
+     * @return
+     */
+    public long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    /**
+     * Set the time in milliseconds a batch waits for more records before it is
+     * committed. Longer interval means bigger batches, but slower answers.
+     *
+     * @param commitIntervalMillis
+     */
+    public void setCommitIntervalMillis(long commitIntervalMillis) {
+        this.commitIntervalMillis = commitIntervalMillis;
+    }
+
+    /**
+     * Get the maximum count of records in a batch.
+     *
+     * @return
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Set the maximum count of records in a batch. A full batch is committed
+     * without waiting for the commit interval.
+     *
+     * @param maxBatchSize
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Get count of rows the sorted exports sort in memory at once.
+     *
+     * @return
+     */
+    public int getExportRunSize() {
+        return exportRunSize;
+    }
+
+    /**
+     * Set count of rows the sorted exports sort in memory at once. Sorted runs
+     * of that size are saved in temporary files next to the exported file and
+     * merged, so exporting needs bounded memory. 0 sorts all rows in memory.
+     *
+     * @param exportRunSize
+     */
+    public void setExportRunSize(int exportRunSize) {
+        this.exportRunSize = exportRunSize;
+    }
+
+}
@@ -0,0 +1,20 @@
+package server;
+
+/**
+ * How a server talks to its clients.
+ *
+ * @author petar
+ */
+public enum ProtocolType {
+
+    /**
+     * Strings written with ObjectOutputStream, the user as XStream XML. The
+     * old protocol, kept for old clients.
+     */
+    OBJECT_STREAM,
+    /**
+     * Length prefixed binary frames with opcodes and status codes, see
+     * WireProtocol.
+     */
+    BINARY
+}
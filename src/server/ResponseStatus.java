@@ -0,0 +1,86 @@
+package server;
+
+/**
+ * Status of the response to a request of a client. The names of the statuses
+ * of ENCRYPT and DECRYPT are the responses of the object stream protocol, the
+ * codes are sent by the binary protocol.
+ *
+ * @author petar
+ */
+public enum ResponseStatus {
+
+    /**
+     * Request is done.
+     */
+    OK(0),
+    /**
+     * Wrong username or password, or the new user was not created.
+     */
+    DENIED(1),
+    /**
+     * User has no permission for the request.
+     */
+    NOACCESS(2),
+    /**
+     * Not a credit card number.
+     */
+    INVALID(3),
+    /**
+     * Credit card number is not Luhn algorithm valid.
+     */
+    LUHN(4),
+    /**
+     * Card network is not supported.
+     */
+    UNSUPPORTED(5),
+    /**
+     * Card is encrypted twelve times already.
+     */
+    TOOMANY(6),
+    /**
+     * No card with that code.
+     */
+    NOCARD(7),
+    /**
+     * Unknown or malformed request.
+     */
+    BAD_REQUEST(8),
+    /**
+     * Protocol version is not supported.
+     */
+    BAD_VERSION(9),
+    /**
+     * Card is encrypted, but the code could not be saved.
+     */
+    NOTSAVED(10);
+
+    private final int code;
+
+    private ResponseStatus(int code) {
+        this.code = code;
+    }
+
+    /**
+     * Get the code of the status in the binary protocol.
+     *
+     * @return
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Get a status by its code.
+     *
+     * @param code
+     * @return status, or null if there is no status with that code
+     */
+    public static ResponseStatus fromCode(int code) {
+        for (ResponseStatus status : values()) {
+            if (status.code == code) {
+                return status;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,418 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking server. The connections are shared between a few event loop
+ * threads, each waiting on its own Selector, so an idle client doesn't hold a
+ * thread. The loops only read and write - the received messages are passed to
+ * the ClientSession of the connection in a pool of worker threads, because an
+ * encryption waits for the card to be saved. The messages of a connection are
+ * handled one by one, in the order they came. The clients talk to it the same
+ * way as to the ThreadPooledServer.
+ *
+ * @author petar
+ */
+public class SelectorServer implements CardServer {
+
+    // a connection with that many messages waiting for a worker is not read
+    // until the worker catches up
+    private static final int MAX_PENDING_MESSAGES = 64;
+    private static final int READ_BUFFER_SIZE = 1024;
+    // the longest String message with its type code and length
+    private static final int MAX_MESSAGE_SIZE = 3 + 65535;
+
+    private final int serverPort;
+    private final int loopCount;
+    private final ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private volatile boolean isStopped;
+
+    /**
+     * Constructor - an event loop per processor, and as many workers as the
+     * ThreadPooledServer has threads.
+     *
+     * @param port port of the server
+     */
+    public SelectorServer(int port) {
+        this(port, Runtime.getRuntime().availableProcessors(), 100);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param port port of the server
+     * @param loopCount count of event loop threads
+     * @param workerCount maximum messages to handle at the same time
+     */
+    public SelectorServer(int port, int loopCount, int workerCount) {
+        serverPort = port;
+        this.loopCount = loopCount;
+        isStopped = false;
+        workers = Executors.newFixedThreadPool(workerCount);
+    }
+
+    /**
+     * Stop the server.(thread-safe method)
+     */
+    @Override
+    public synchronized void stop() {
+        isStopped = true;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing server", e);
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * Run the server: 1) create the server and start the event loops 2) while
+     * server is online: accept clients and give them to the loops in turn
+     */
+    @Override
+    public void run() {
+        openServerChannel();
+        int next = 0;
+        while (!isStopped) {
+            SocketChannel clientChannel = null;
+            try {
+                clientChannel = serverChannel.accept();
+                clientChannel.configureBlocking(false);
+                clientChannel.setOption(StandardSocketOptions.TCP_NODELAY,
+                        true);
+            } catch (IOException e) {
+                if (isStopped) {
+                    System.out.println("Server Stopped.");
+                    break;
+                }
+                throw new RuntimeException(
+                        "Error accepting client connection", e);
+            }
+            loops[next].register(clientChannel);
+            next = (next + 1) % loops.length;
+        }
+        workers.shutdown();
+        System.out.println("Server is offline.");
+    }
+
+    /**
+     * Open the server channel on the given(in the constructor) port and start
+     * the event loops.
+     */
+    private synchronized void openServerChannel() {
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(serverPort));
+            loops = new EventLoop[loopCount];
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open port", e);
+        }
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i],
+                    "selector-" + serverPort + "-" + i);
+            thread.start();
+        }
+    }
+
+    /**
+     * Event loop thread - reads and writes the connections registered with its
+     * selector. Other threads give it work through the task queue.
+     */
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks;
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+            tasks = new ConcurrentLinkedQueue<>();
+        }
+
+        /**
+         * Run a task in the loop thread.
+         *
+         * @param task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Start handling a new client.
+         *
+         * @param channel
+         */
+        void register(SocketChannel channel) {
+            execute(() -> {
+                Connection connection = new Connection(channel, this);
+                try {
+                    connection.key = channel.register(selector,
+                            SelectionKey.OP_READ | SelectionKey.OP_WRITE,
+                            connection);
+                } catch (ClosedChannelException ex) {
+                    connection.close();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isStopped) {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys
+                            = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(
+                        "Error selecting client connections", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * A client connection. The channel, the buffers and the interest of the
+     * key are used only by the event loop thread, the session only by one
+     * worker at a time.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final ObjectStreamCodec codec;
+        private final ClientSession session;
+        private SelectionKey key;
+        private ByteBuffer readBuffer;
+        // received messages, waiting for a worker
+        private final ConcurrentLinkedQueue<String> inbox;
+        private final AtomicInteger pendingMessages;
+        // responses, waiting to be written
+        private final ConcurrentLinkedQueue<ByteBuffer> outbox;
+        // true while a worker handles the messages of the connection
+        private final AtomicBoolean scheduled;
+        // nothing more will be read from the client
+        private volatile boolean inputEnded;
+        // the session is over, close when the responses are written
+        private volatile boolean closing;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            this.codec = new ObjectStreamCodec();
+            this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            this.inbox = new ConcurrentLinkedQueue<>();
+            this.pendingMessages = new AtomicInteger();
+            this.outbox = new ConcurrentLinkedQueue<>();
+            this.scheduled = new AtomicBoolean();
+            this.session = new ClientSession((String response) -> {
+                outbox.add(ObjectStreamCodec.encode(response));
+            });
+            //ObjectOutputStream writes a header first
+            outbox.add(ObjectStreamCodec.header());
+        }
+
+        /**
+         * Read what the client sent, and pass the complete messages to a
+         * worker. (event loop thread)
+         */
+        void read() {
+            int count;
+            try {
+                count = channel.read(readBuffer);
+            } catch (IOException ex) {
+                count = -1;
+            }
+            if (count == -1) {
+                inputEnded = true;
+            } else {
+                readBuffer.flip();
+                try {
+                    String message;
+                    while ((message = codec.decode(readBuffer)) != null) {
+                        inbox.add(message);
+                        pendingMessages.incrementAndGet();
+                    }
+                } catch (IOException ex) {
+                    //not a message of the client
+                    inputEnded = true;
+                }
+                readBuffer.compact();
+                if (!readBuffer.hasRemaining()
+                        && readBuffer.capacity() < MAX_MESSAGE_SIZE) {
+                    ByteBuffer larger = ByteBuffer.allocate(Math.min(
+                            2 * readBuffer.capacity(), MAX_MESSAGE_SIZE));
+                    readBuffer.flip();
+                    larger.put(readBuffer);
+                    readBuffer = larger;
+                }
+            }
+            schedule();
+            updateInterest();
+        }
+
+        /**
+         * Write the waiting responses, as much as the channel takes. (event
+         * loop thread)
+         */
+        void write() {
+            try {
+                ByteBuffer buffer;
+                while ((buffer = outbox.peek()) != null) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        break;
+                    }
+                    outbox.poll();
+                }
+            } catch (IOException ex) {
+                //client terminated the connection
+                close();
+                inputEnded = true;
+                schedule();
+                return;
+            }
+            updateInterest();
+        }
+
+        /**
+         * Read only if the workers keep up, write only if there is something
+         * to write, and close when the session is over and everything is
+         * written. (event loop thread)
+         */
+        void updateInterest() {
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            if (closing && outbox.isEmpty()) {
+                close();
+                return;
+            }
+            int ops = 0;
+            if (!inputEnded && !closing
+                    && pendingMessages.get() < MAX_PENDING_MESSAGES) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!outbox.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        /**
+         * Give the connection to a worker, if it has messages and no worker
+         * has it already.
+         */
+        void schedule() {
+            if ((!inbox.isEmpty() || (inputEnded && !closing))
+                    && scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this::handleMessages);
+                } catch (RejectedExecutionException ex) {
+                    //server is stopped
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Pass the received messages to the session. (worker thread)
+         */
+        private void handleMessages() {
+            do {
+                String message;
+                while ((message = inbox.poll()) != null) {
+                    pendingMessages.decrementAndGet();
+                    if (!closing && channel.isOpen()) {
+                        handle(message);
+                        loop.execute(this::updateInterest);
+                    }
+                }
+                if (inputEnded && !closing && inbox.isEmpty()) {
+                    session.unexpectedEnd();
+                    closing = true;
+                    loop.execute(this::updateInterest);
+                }
+                scheduled.set(false);
+            } while ((!inbox.isEmpty() || (inputEnded && !closing))
+                    && scheduled.compareAndSet(false, true));
+        }
+
+        private void handle(String message) {
+            try {
+                if (!session.receive(message)) {
+                    closing = true;
+                }
+            } catch (IOException ex) {
+                session.unexpectedEnd();
+                closing = true;
+            } catch (RuntimeException ex) {
+                ex.printStackTrace();
+                session.unexpectedEnd();
+                closing = true;
+            }
+        }
+
+        /**
+         * Close the connection with the client.
+         */
+        void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // something is wrong with the socket, cannot close it properly
+                ex.printStackTrace();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package server;
+
+/**
+ * Format of the file that CreditCardManager keeps the credit cards in.
+ *
+ * @author petar
+ */
+public enum SnapshotFormat {
+
+    /**
+     * XML file of credit cards(the XStream layout). The cards are streamed into
+     * the card store at startup.
+     */
+    XML,
+    /**
+     * Binary CardSnapshot. The file is memory mapped and cards are read from
+     * it when they are needed, only new and changed cards are kept in memory.
+     */
+    BINARY
+}
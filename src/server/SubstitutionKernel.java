@@ -0,0 +1,147 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Batch kernel of the substitution cipher that shifts 8 digits at once. The
+ * numbers are packed as bytes in one buffer, with the key of every char in a
+ * second buffer, and every long of the buffer is processed as 8 byte lanes
+ * (SIMD within a register): digit lanes get (digit + key) % 10, other lanes
+ * are kept. Numbers with non ASCII chars, or offsets the shift doesn't cover,
+ * are done with the scalar algorithm.
+ *
+ * @author petar
+ */
+final class SubstitutionKernel implements CryptBatch.Kernel {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH = 0x8080808080808080L;
+    private static final long ZERO = '0' * ONES;
+    private static final long NINE = '9' * ONES;
+    private static final long TEN = ('9' + 1) * ONES;
+
+    private final CryptAlgorithm scalar;
+    private final boolean encrypt;
+
+    /**
+     * Create a kernel.
+     *
+     * @param scalar substitution cipher for the numbers the kernel can't do
+     * @param encrypt true to encrypt, false to decrypt
+     */
+    SubstitutionKernel(CryptAlgorithm scalar, boolean encrypt) {
+        this.scalar = scalar;
+        this.encrypt = encrypt;
+    }
+
+    @Override
+    public void crypt(String[] input, int[] offsets, String[] output,
+            int from, int to) {
+        int total = 0;
+        for (int i = from; i < to; i++) {
+            total += input[i].length();
+        }
+        // whole longs, the padding is zeros which are kept
+        int words = (total + 7) >>> 3;
+        byte[] chars = new byte[words << 3];
+        byte[] keys = new byte[words << 3];
+        int position = 0;
+        for (int i = from; i < to; i++) {
+            int key = getKey(offsets[i]);
+            int length = input[i].length();
+            if (key == -1 || !pack(input[i], chars, position)) {
+                output[i] = encrypt ? scalar.encrypt(input[i], offsets[i])
+                        : scalar.decrypt(input[i], offsets[i]);
+                Arrays.fill(chars, position, position + length, (byte) 0);
+            } else {
+                Arrays.fill(keys, position, position + length, (byte) key);
+            }
+            position += length;
+        }
+        shift(chars, keys, words);
+        position = 0;
+        for (int i = from; i < to; i++) {
+            int length = input[i].length();
+            if (output[i] == null) {
+                output[i] = new String(chars, position, length,
+                        StandardCharsets.ISO_8859_1);
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * Shift all digit lanes of the buffer by their keys.
+     *
+     * @param chars ASCII chars, replaced by the result
+     * @param keys key(0-9) of every char
+     * @param words count of longs in the buffers
+     */
+    static void shift(byte[] chars, byte[] keys, int words) {
+        LongBuffer charWords = ByteBuffer.wrap(chars)
+                .order(ByteOrder.nativeOrder()).asLongBuffer();
+        LongBuffer keyWords = ByteBuffer.wrap(keys)
+                .order(ByteOrder.nativeOrder()).asLongBuffer();
+        for (int i = 0; i < words; i++) {
+            charWords.put(i, shift(charWords.get(i), keyWords.get(i)));
+        }
+    }
+
+    /**
+     * Shift the digit lanes of a long. Every lane is below 0x80, so setting
+     * the high bit of a lane before subtracting keeps borrows inside the lane.
+     *
+     * @param word 8 ASCII chars
+     * @param key 8 keys(0-9)
+     * @return
+     */
+    static long shift(long word, long key) {
+        // high bit of the lanes that are >= '0' and <= '9'
+        long digits = ((word | HIGH) - ZERO) & ((NINE | HIGH) - word) & HIGH;
+        long mask = (digits >>> 7) * 0xFF;
+        long shifted = (word & mask) + (key & mask);
+        // lanes that went past '9' wrap around
+        long wrapped = ((shifted | HIGH) - TEN) & HIGH;
+        shifted -= (wrapped >>> 7) * 10;
+        return shifted | (word & ~mask);
+    }
+
+    /**
+     * Get the shift of a digit for an offset, the same the scalar algorithm
+     * does.
+     *
+     * @param offset
+     * @return shift(0-9), or -1 if the scalar algorithm should be used
+     */
+    private int getKey(int offset) {
+        if (encrypt) {
+            return (offset >= 0) ? offset % 10 : -1;
+        } else {
+            return (offset >= -10) ? (10 + offset) % 10 : -1;
+        }
+    }
+
+    /**
+     * Copy the chars of a string in the buffer.
+     *
+     * @param text
+     * @param chars
+     * @param position
+     * @return false if a char is not ASCII, true - otherwise
+     */
+    private static boolean pack(String text, byte[] chars, int position) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                return false;
+            }
+            chars[position + i] = (byte) c;
+        }
+        return true;
+    }
+
+}
@@ -6,31 +6,92 @@ import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-public class ThreadPooledServer implements Runnable {
+/**
+ * Blocking server - every client is handled in a thread of a fixed pool, or
+ * in its own virtual thread.
+ *
+ * @author petar
+ */
+public class ThreadPooledServer implements CardServer {
 
     private final int serverPort;
+    private final ProtocolType protocol;
     private final ExecutorService threadPool;
+    // runs the pipelined requests of binary clients, so a client can have
+    // many requests running
+    private final ExecutorService requestPool;
     private ServerSocket serverSocket;
     private boolean isStopped;
 
     /**
-     * Constructor
+     * Constructor - clients are handled in a fixed pool of threads.
      *
      * @param port port of the server
      */
     public ThreadPooledServer(int port) {
+        this(port, ProtocolType.OBJECT_STREAM, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param port port of the server
+     * @param virtualThreads true to handle every client in its own virtual
+     * thread(Java 21 or newer), false - in a fixed pool of threads
+     */
+    public ThreadPooledServer(int port, boolean virtualThreads) {
+        this(port, ProtocolType.OBJECT_STREAM, virtualThreads);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param port port of the server
+     * @param protocol protocol of the clients
+     * @param virtualThreads true to handle every client in its own virtual
+     * thread(Java 21 or newer), false - in a fixed pool of threads
+     */
+    public ThreadPooledServer(int port, ProtocolType protocol,
+            boolean virtualThreads) {
         serverPort = port;
+        this.protocol = protocol;
         isStopped = false;
 
-        //Maximum clients to handle at the same time.
-        threadPool = Executors.newFixedThreadPool(100);
-        //newFixedThreadPool can be replaced by newCachedThreadPool if 
-        //there should be no limit
+        if (virtualThreads) {
+            threadPool = newVirtualThreadPerTaskExecutor();
+            requestPool = newVirtualThreadPerTaskExecutor();
+        } else {
+            //Maximum clients to handle at the same time.
+            threadPool = Executors.newFixedThreadPool(100);
+            //newFixedThreadPool can be replaced by newCachedThreadPool if
+            //there should be no limit
+            //Maximum pipelined requests to handle at the same time.
+            requestPool = Executors.newFixedThreadPool(100);
+        }
+    }
+
+    /**
+     * Create an executor that starts a virtual thread for every task. The
+     * method is looked up at run time, because the server is compiled for
+     * Java 8. On older Java a thread is started for every task instead.
+     *
+     * @return
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            System.out.println(
+                    "Virtual threads are not supported, using platform threads.");
+            return Executors.newCachedThreadPool();
+        }
     }
 
     /**
      * Stop the server.(thread-safe method)
      */
+    @Override
     public synchronized void stop() {
         isStopped = true;
         try {
@@ -60,9 +121,11 @@ public class ThreadPooledServer implements Runnable {
                         "Error accepting client connection", e);
             }
             threadPool.execute(
-                    new ClientHandlerRunnable(clientSocket));
+                    new ClientHandlerRunnable(clientSocket, protocol,
+                            requestPool));
         }
         threadPool.shutdown();
+        requestPool.shutdown();
         System.out.println("Server is offline.");
     }
 
@@ -3,12 +3,14 @@ package server;
 import java.util.ArrayList;
 
 /**
+ * Database of users. The list is copied on every change, so logins read it
+ * without locking.
  *
  * @author petar
  */
 public class UserDataBase {
 
-    private ArrayList<User> users;
+    private volatile ArrayList<User> users;
 
     /**
      * Creates an empty database of users.
@@ -17,6 +19,15 @@ public class UserDataBase {
         users = new ArrayList<>();
     }
 
+    /**
+     * Creates a database of loaded users, without copying them.
+     *
+     * @param users list of users, not changed after that
+     */
+    public UserDataBase(ArrayList<User> users) {
+        this.users = users;
+    }
+
     /**
      * Get database.
      *
@@ -46,7 +57,9 @@ public class UserDataBase {
      *
      * @param newUser
      */
-    public void addUser(User newUser) {
-        users.add(newUser);
+    public synchronized void addUser(User newUser) {
+        ArrayList<User> newUsers = new ArrayList<>(users);
+        newUsers.add(newUser);
+        users = newUsers;
     }
 }
@@ -2,9 +2,19 @@ package server;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.DomDriver;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * UserManager is responsible for user database provided by a XML file. Provides
@@ -14,6 +24,9 @@ import java.io.PrintWriter;
  */
 public final class UserManager {
 
+    // not synchronized, so a virtual thread waiting for the file is not
+    // pinned to its carrier
+    private static final ReentrantLock LOCK = new ReentrantLock();
     private static File file;
     private static UserDataBase dataBase;
 
@@ -53,26 +66,82 @@ public final class UserManager {
      * @return false if user with that username already exists, true - otherwise
      */
     public static boolean createNewUser(User newUser) {
-        if (userExists(newUser.getUsername())) {
-            return false;
+        LOCK.lock();
+        try {
+            if (userExists(newUser.getUsername())) {
+                return false;
+            }
+            dataBase.addUser(newUser);
+            exportToXML();
+            return true;
+        } finally {
+            LOCK.unlock();
         }
-        dataBase.addUser(newUser);
-        exportToXML();
-        return true;
     }
 
     /**
-     * Loads a database of users from the file given on initialization.
+     * Loads a database of users from the file given on initialization. The file
+     * is read with a streaming parser, the users are collected in a list and
+     * the database is created from it at the end(adding them one by one would
+     * copy the list for every user). The layout is the one XStream writes for
+     * UserDataBase.
      */
     private static void loadFromXML() {
-        if (file.exists() && !file.isDirectory()) {
-            XStream xstream = new XStream(new DomDriver());
-            xstream.alias("UserDataBase", UserDataBase.class);
-            xstream.alias("User", User.class);
-            dataBase = (UserDataBase) xstream.fromXML(file);
-        } else {
+        if (!file.exists() || file.isDirectory()) {
             dataBase = new UserDataBase();
+            return;
+        }
+        ArrayList<User> users = new ArrayList<>();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        try (InputStream input = new BufferedInputStream(
+                new FileInputStream(file))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(input);
+            String username = null;
+            String password = null;
+            boolean administrator = false;
+            boolean ableToEncrypt = false;
+            boolean ableToRequestCard = false;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "username":
+                            username = reader.getElementText();
+                            break;
+                        case "password":
+                            password = reader.getElementText();
+                            break;
+                        case "administrator":
+                            administrator = Boolean.parseBoolean(
+                                    reader.getElementText());
+                            break;
+                        case "ableToEncrypt":
+                            ableToEncrypt = Boolean.parseBoolean(
+                                    reader.getElementText());
+                            break;
+                        case "ableToRequestCard":
+                            ableToRequestCard = Boolean.parseBoolean(
+                                    reader.getElementText());
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                        && reader.getLocalName().equals("User")) {
+                    users.add(new User(username, password,
+                            new Access(administrator, ableToEncrypt,
+                                    ableToRequestCard)));
+                    username = null;
+                    password = null;
+                    administrator = false;
+                    ableToEncrypt = false;
+                    ableToRequestCard = false;
+                }
+            }
+            reader.close();
+        } catch (IOException | XMLStreamException ex) {
+            throw new RuntimeException("Cannot load users", ex);
         }
+        dataBase = new UserDataBase(users);
     }
 
     /**
@@ -0,0 +1,23 @@
+package server;
+
+/**
+ * Result of validating a card number.
+ *
+ * @author petar
+ */
+public enum ValidationResult {
+
+    /**
+     * Not a card number - doesn't start with a digit, has other chars than
+     * digits and spaces, or is not 16 to 19 chars long.
+     */
+    INVALID,
+    /**
+     * A card number, but the Luhn checksum is wrong.
+     */
+    LUHN,
+    /**
+     * A valid card number.
+     */
+    OK
+}
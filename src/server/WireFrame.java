@@ -0,0 +1,130 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A frame of the binary protocol that is being written. The opcode(and
+ * status) is written when the frame is created, the payload is added, and the
+ * frame is sent with its length.
+ *
+ * @author petar
+ */
+public final class WireFrame {
+
+    private final ByteArrayOutputStream bytes;
+    private final DataOutputStream data;
+
+    private WireFrame(int opcode) throws IOException {
+        bytes = new ByteArrayOutputStream(32);
+        data = new DataOutputStream(bytes);
+        data.writeByte(opcode);
+    }
+
+    /**
+     * Create a request.
+     *
+     * @param opcode
+     * @return
+     * @throws IOException
+     */
+    public static WireFrame request(int opcode) throws IOException {
+        return new WireFrame(opcode);
+    }
+
+    /**
+     * Create a request with an id(version 2).
+     *
+     * @param opcode
+     * @param id
+     * @return
+     * @throws IOException
+     */
+    public static WireFrame request(int opcode, int id) throws IOException {
+        WireFrame frame = new WireFrame(opcode);
+        frame.data.writeInt(id);
+        return frame;
+    }
+
+    /**
+     * Create a response with the id of its request(version 2).
+     *
+     * @param opcode opcode of the request
+     * @param id id of the request
+     * @param status
+     * @return
+     * @throws IOException
+     */
+    public static WireFrame response(int opcode, int id,
+            ResponseStatus status) throws IOException {
+        WireFrame frame = new WireFrame(opcode);
+        frame.data.writeInt(id);
+        frame.data.writeByte(status.getCode());
+        return frame;
+    }
+
+    /**
+     * Create a response.
+     *
+     * @param opcode opcode of the request
+     * @param status
+     * @return
+     * @throws IOException
+     */
+    public static WireFrame response(int opcode, ResponseStatus status)
+            throws IOException {
+        WireFrame frame = new WireFrame(opcode);
+        frame.data.writeByte(status.getCode());
+        return frame;
+    }
+
+    /**
+     * Add a byte to the payload.
+     *
+     * @param value
+     * @return this frame
+     * @throws IOException
+     */
+    public WireFrame writeByte(int value) throws IOException {
+        data.writeByte(value);
+        return this;
+    }
+
+    /**
+     * Add a short to the payload.
+     *
+     * @param value
+     * @return this frame
+     * @throws IOException
+     */
+    public WireFrame writeShort(int value) throws IOException {
+        data.writeShort(value);
+        return this;
+    }
+
+    /**
+     * Add a string to the payload.
+     *
+     * @param value
+     * @return this frame
+     * @throws IOException if the string is too long
+     */
+    public WireFrame writeString(String value) throws IOException {
+        data.writeUTF(value);
+        return this;
+    }
+
+    /**
+     * Write the frame and flush the output.
+     *
+     * @param output
+     * @throws IOException
+     */
+    public void send(DataOutputStream output) throws IOException {
+        output.writeInt(bytes.size());
+        bytes.writeTo(output);
+        output.flush();
+    }
+
+}
@@ -0,0 +1,166 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * Binary protocol between the client and the server.
+ *
+ * The client starts the connection with a header - the bytes 'B', 'C', 'P'
+ * and the protocol version. Then both sides send frames: the length of the
+ * rest of the frame(int), the opcode(byte) and the payload. A response has
+ * the opcode of its request and a status code(byte) before the payload.
+ * Strings are written with DataOutputStream.writeUTF.
+ *
+ * Since version 2 every request has an id(int) after the opcode, and its
+ * response has the same id before the status. The client can send many
+ * requests without waiting for the responses - the server handles them at the
+ * same time and responds in any order. LOGIN is handled before the next
+ * requests are read, and the responses to all requests are sent before the
+ * connection is closed on END.
+ *
+ * Requests and the payloads of their OK responses:
+ * <pre>
+ * LOGIN          username, password      -> access(byte of ACCESS_ flags)
+ * NEW_USER       username, password, access(byte)
+ * ENCRYPT        number                  -> code
+ * DECRYPT        code                    -> number
+ * ENCRYPT_BATCH  count(short), numbers   -> count(short), results
+ * DECRYPT_BATCH  count(short), codes     -> count(short), results
+ * END            (no response)
+ * </pre>
+ * A batch has 1 to MAX_BATCH_SIZE items. Every item has a result in the order
+ * of the items - a status(byte), and the code(number) if it is OK. A batch
+ * with a wrong count gets BAD_REQUEST without results.
+ * LOGIN must be the first request. If the version is not supported, the
+ * server responds with BAD_VERSION and the highest version it supports(a
+ * frame of version 1), and closes the connection.
+ *
+ * @author petar
+ */
+public final class WireProtocol {
+
+    /**
+     * Highest version of the protocol.
+     */
+    public static final int VERSION = 2;
+    /**
+     * First version with request ids.
+     */
+    public static final int PIPELINING_VERSION = 2;
+    /**
+     * Frames(without the length) can't be longer.
+     */
+    public static final int MAX_FRAME_LENGTH = 1 << 16;
+    /**
+     * Batches can't have more items(their frames fit in MAX_FRAME_LENGTH).
+     */
+    public static final int MAX_BATCH_SIZE = 1024;
+
+    // opcodes
+    public static final int NONE = 0;
+    public static final int LOGIN = 1;
+    public static final int NEW_USER = 2;
+    public static final int ENCRYPT = 3;
+    public static final int DECRYPT = 4;
+    public static final int END = 5;
+    public static final int ENCRYPT_BATCH = 6;
+    public static final int DECRYPT_BATCH = 7;
+
+    // access flags
+    public static final int ACCESS_ADMINISTRATOR = 1;
+    public static final int ACCESS_ENCRYPT = 2;
+    public static final int ACCESS_REQUEST_CARD = 4;
+
+    private static final byte[] MAGIC = {'B', 'C', 'P'};
+
+    private WireProtocol() {
+    }
+
+    /**
+     * Write the header of a connection.
+     *
+     * @param output
+     * @param version
+     * @throws IOException
+     */
+    public static void writeHeader(DataOutputStream output, int version)
+            throws IOException {
+        output.write(MAGIC);
+        output.writeByte(version);
+    }
+
+    /**
+     * Read the header of a connection.
+     *
+     * @param input
+     * @return version of the client
+     * @throws IOException if the header is not of this protocol
+     */
+    public static int readHeader(DataInputStream input) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        input.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new StreamCorruptedException("Invalid header");
+            }
+        }
+        return input.readUnsignedByte();
+    }
+
+    /**
+     * Read a frame.
+     *
+     * @param input
+     * @return the opcode(and status) and payload of the frame
+     * @throws IOException if the frame is longer than MAX_FRAME_LENGTH, or the
+     * connection is closed
+     */
+    public static DataInputStream readFrame(DataInputStream input)
+            throws IOException {
+        int length = input.readInt();
+        if (length <= 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length "
+                    + length);
+        }
+        byte[] frame = new byte[length];
+        input.readFully(frame);
+        return new DataInputStream(new ByteArrayInputStream(frame));
+    }
+
+    /**
+     * Get the flags of an access.
+     *
+     * @param access
+     * @return
+     */
+    public static int getAccessFlags(Access access) {
+        int flags = 0;
+        if (access.isAdministrator()) {
+            flags |= ACCESS_ADMINISTRATOR;
+        }
+        if (access.isAbleToEncrypt()) {
+            flags |= ACCESS_ENCRYPT;
+        }
+        if (access.isAbleToRequestCard()) {
+            flags |= ACCESS_REQUEST_CARD;
+        }
+        return flags;
+    }
+
+    /**
+     * Get the access of flags.
+     *
+     * @param flags
+     * @return
+     */
+    public static Access getAccess(int flags) {
+        return new Access((flags & ACCESS_ADMINISTRATOR) != 0,
+                (flags & ACCESS_ENCRYPT) != 0,
+                (flags & ACCESS_REQUEST_CARD) != 0);
+    }
+
+}
@@ -0,0 +1,161 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Compares the ciphers of Algorithm with their original String
+ * implementations, which are kept here as the reference.
+ *
+ * @author petar
+ */
+public class AlgorithmTest {
+
+    private static final int INPUTS = 2000;
+
+    private final Algorithm algorithm = new Algorithm(5);
+
+    @Test
+    public void substitutionMatchesOriginal() {
+        CryptAlgorithm substitution = algorithm.substitutionCipher();
+        Random random = new Random(12);
+        for (int offset = 0; offset < 16; offset++) {
+            for (int i = 0; i < INPUTS; i++) {
+                String text = randomText(random, random.nextInt(25));
+                assertEquals(text, originalSubstitution(text, offset, false),
+                        substitution.encrypt(text, offset));
+                assertEquals(text, originalSubstitution(text, offset, true),
+                        substitution.decrypt(text, offset));
+            }
+        }
+    }
+
+    @Test
+    public void railFenceMatchesOriginal() {
+        CryptAlgorithm railFence = algorithm.railFenceCipher();
+        Random random = new Random(12);
+        for (int offset = 0; offset < 16; offset++) {
+            for (int i = 0; i < INPUTS; i++) {
+                String text = randomText(random, random.nextInt(25));
+                assertEquals(text, originalRailFenceEncrypt(text, offset),
+                        railFence.encrypt(text, offset));
+                assertEquals(text, originalRailFenceDecrypt(text, offset),
+                        railFence.decrypt(text, offset));
+            }
+        }
+    }
+
+    /**
+     * Every length and offset, in the permutation cache(lengths 0-32, offsets
+     * 0-15) and out of it.
+     */
+    @Test
+    public void cachedRailFenceMatchesOriginal() {
+        CryptAlgorithm railFence = algorithm.railFenceCipher();
+        Random random = new Random(13);
+        for (int length = 0; length <= 44; length++) {
+            for (int offset = 0; offset < 20; offset++) {
+                String text = randomText(random, length);
+                String code = originalRailFenceEncrypt(text, offset);
+                assertEquals(text, code, railFence.encrypt(text, offset));
+                assertEquals(text, originalRailFenceDecrypt(text, offset),
+                        railFence.decrypt(text, offset));
+                if (length > 0 && length <= CardNumber.MAX_LENGTH) {
+                    assertEquals(text, code, railFence.encrypt(
+                            CardNumber.of(text), offset).toString());
+                    assertEquals(text, text, railFence.decrypt(
+                            CardNumber.of(code), offset).toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Digits and spaces.
+     */
+    static String randomText(Random random, int length) {
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (random.nextInt(5) == 0) ? ' '
+                    : (char) ('0' + random.nextInt(10));
+        }
+        return new String(text);
+    }
+
+    private static String originalSubstitution(String text, int offset,
+            boolean decrypt) {
+        String[] digits = text.split("");
+        StringBuilder result = new StringBuilder();
+        for (String digit : digits) {
+            if (digit.compareTo("0") >= 0 && digit.compareTo("9") <= 0) {
+                int x = (Integer.parseInt(digit) + (decrypt ? 10 : 0)
+                        + offset) % 10;
+                result.append(x);
+            } else {
+                result.append(digit);
+            }
+        }
+        return result.toString();
+    }
+
+    static String originalRailFenceEncrypt(String plainText, int offset) {
+        if (offset == 0 || offset == 1) {
+            return plainText;
+        }
+        ArrayList<String> railFence = new ArrayList<>();
+        for (int i = 0; i < offset; i++) {
+            railFence.add("");
+        }
+        int number = 0;
+        int increment = 1;
+        for (char c : plainText.toCharArray()) {
+            if (number + increment == offset) {
+                increment = -1;
+            } else if (number + increment == -1) {
+                increment = 1;
+            }
+            railFence.set(number, railFence.get(number) + c);
+            number += increment;
+        }
+        String buffer = "";
+        for (String s : railFence) {
+            buffer += s;
+        }
+        return buffer;
+    }
+
+    static String originalRailFenceDecrypt(String cipherText, int offset) {
+        if (offset == 0 || offset == 1) {
+            return cipherText;
+        }
+        int cipherLength = cipherText.length();
+        List<List<Integer>> railFence = new ArrayList<>();
+        for (int i = 0; i < offset; i++) {
+            railFence.add(new ArrayList<>());
+        }
+        int number = 0;
+        int increment = 1;
+        for (int i = 0; i < cipherLength; i++) {
+            if (number + increment == offset) {
+                increment = -1;
+            } else if (number + increment == -1) {
+                increment = 1;
+            }
+            railFence.get(number).add(i);
+            number += increment;
+        }
+        int counter = 0;
+        char[] buffer = new char[cipherLength];
+        for (int i = 0; i < offset; i++) {
+            for (int j = 0; j < railFence.get(i).size(); j++) {
+                buffer[railFence.get(i).get(j)] = cipherText.charAt(counter);
+                counter++;
+            }
+        }
+        return new String(buffer);
+    }
+
+}
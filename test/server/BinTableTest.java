@@ -0,0 +1,108 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * BIN ranges expanded to prefixes, the longest prefix lookup and the
+ * BinTableManager fallback when there is no file.
+ *
+ * @author petar
+ */
+public class BinTableTest {
+
+    /**
+     * 2221-2720 is 2221-2229, 222-229 without 222, 23-26, 270-271 and 2720.
+     */
+    @Test
+    public void rangeIsExpandedToPrefixes() throws IOException {
+        BinTable table = load("2221-2720 MASTERCARD\n");
+        assertEquals(9 + 7 + 4 + 2 + 1, table.getPrefixCount());
+        for (int bin = 2200; bin < 2800; bin++) {
+            String number = bin + " 0000 0000 0000";
+            if (bin >= 2221 && bin <= 2720) {
+                assertEquals(number, "MASTERCARD", table.getNetwork(number));
+            } else {
+                assertNull(number, table.getNetwork(number));
+            }
+        }
+    }
+
+    @Test
+    public void wholeBlockIsOnePrefix() throws IOException {
+        BinTable table = load("# comment\n\n400000-499999 V\n51-55 MC\n");
+        assertEquals(1 + 5, table.getPrefixCount());
+        assertEquals("V", table.getNetwork("4999 9"));
+        assertEquals("MC", table.getNetwork("5 5"));
+        assertNull(table.getNetwork("56"));
+        assertNull(table.getNetwork("3"));
+    }
+
+    @Test
+    public void longestPrefixWins() throws IOException {
+        BinTable table = load("62 UNIONPAY\n622126-622925 X\n6221 Y\n");
+        assertEquals("UNIONPAY", table.getNetwork("6200 0000 0000 0000"));
+        assertEquals("Y", table.getNetwork("6221 2500 0000 0000"));
+        assertEquals("X", table.getNetwork("6221 2600 0000 0000"));
+        assertEquals("X", table.getNetwork("6229 2500 0000 0000"));
+        assertEquals("UNIONPAY", table.getNetwork("6229 2600 0000 0000"));
+        assertNull(table.getNetwork("6"));
+    }
+
+    @Test(expected = IOException.class)
+    public void badLineIsRejected() throws IOException {
+        load("4x VISA\n");
+    }
+
+    @Test
+    public void emptyTableHasNoNetwork() {
+        assertNull(BinTable.empty().getNetwork("4563 9601 2200 1999"));
+    }
+
+    @Test
+    public void noFileSupportsOriginalNetworks() throws IOException {
+        File file = File.createTempFile("bins", ".txt");
+        assertTrue(file.delete());
+        assertTrue(BinTableManager.initialize(file.getPath()));
+        assertEquals(0, BinTableManager.getPrefixCount());
+        for (char first = '0'; first <= '9'; first++) {
+            String number = first + "563 9601 2200 1999";
+            assertEquals(number, first >= '3' && first <= '6',
+                    BinTableManager.isSupported(number));
+        }
+    }
+
+    @Test
+    public void brokenFileSupportsNothing() throws IOException {
+        File file = write("4x VISA\n");
+        try {
+            assertFalse(BinTableManager.initialize(file.getPath()));
+            assertFalse(BinTableManager.isSupported("4563 9601 2200 1999"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static BinTable load(String ranges) throws IOException {
+        File file = write(ranges);
+        try {
+            return BinTable.load(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static File write(String ranges) throws IOException {
+        File file = File.createTempFile("bins", ".txt");
+        Files.write(file.toPath(), ranges.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+}
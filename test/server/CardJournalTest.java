@@ -0,0 +1,218 @@
+package server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Replay of CardJournal files - complete journals, rotated journals and
+ * journals with a torn record.
+ *
+ * @author petar
+ */
+public class CardJournalTest {
+
+    @Test
+    public void replayReturnsRecordsInOrder() throws IOException {
+        File file = newFile();
+        try {
+            CardJournal journal = new CardJournal(file, 0);
+            appendCards(journal, 0, 3);
+            journal.close();
+            assertEquals(expected(0, 3), replay(file));
+            assertEquals(6, CardJournal.replay(file, (first, code) -> {
+            }));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void groupCommitReplaysEveryRecord() throws Exception {
+        File file = newFile();
+        try {
+            CardJournal journal = new CardJournal(file, 0, 5, 4);
+            CompletableFuture<Void> saved = null;
+            for (int i = 0; i < 10; i++) {
+                saved = journal.append(first(i), first(i));
+            }
+            saved.get();
+            journal.close();
+            assertEquals(10, replay(file).size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void rotateMovesRecords() throws IOException {
+        File file = newFile();
+        File rotated = new File(file.getPath() + ".old");
+        try {
+            CardJournal journal = new CardJournal(file, 0);
+            appendCards(journal, 0, 2);
+            journal.rotate(rotated);
+            assertEquals(0, journal.getRecordCount());
+            appendCards(journal, 2, 3);
+            journal.close();
+            assertEquals(expected(0, 2), replay(rotated));
+            assertEquals(expected(2, 3), replay(file));
+        } finally {
+            file.delete();
+            rotated.delete();
+        }
+    }
+
+    @Test
+    public void tornTailIsCut() throws IOException {
+        File file = newFile();
+        try {
+            CardJournal journal = new CardJournal(file, 0);
+            appendCards(journal, 0, 2);
+            journal.close();
+            long length = file.length();
+            try (RandomAccessFile torn = new RandomAccessFile(file, "rw")) {
+                torn.setLength(length - 3);
+            }
+            List<String> records = replay(file);
+            assertEquals(expected(0, 2).subList(0, 3), records);
+            // the cut file can be appended to
+            journal = new CardJournal(file, records.size());
+            appendCards(journal, 2, 3);
+            journal.close();
+            List<String> all = new ArrayList<>(records);
+            all.addAll(expected(2, 3));
+            assertEquals(all, replay(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * A batch that fails halfway is cut from the file, so the records after
+     * it are not appended to a torn record.
+     */
+    @Test
+    public void failedWriteIsCut() throws IOException {
+        File file = newFile();
+        try {
+            CardJournal journal = new TornJournal(file, 3);
+            appendCards(journal, 0, 1);
+            try {
+                journal.append(first(1), first(1));
+                fail("write should fail");
+            } catch (IOException ex) {
+                //the third batch is torn
+            }
+            assertEquals(2, journal.getRecordCount());
+            appendCards(journal, 2, 3);
+            journal.close();
+            List<String> all = new ArrayList<>(expected(0, 1));
+            all.addAll(expected(2, 3));
+            assertEquals(all, replay(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void failedGroupCommitIsCut() throws Exception {
+        File file = newFile();
+        try {
+            CardJournal journal = new TornJournal(file, 5, 1, 1);
+            CompletableFuture<Void> saved = null;
+            for (int i = 0; i < 8; i++) {
+                saved = journal.append(first(i), first(i));
+                try {
+                    saved.get();
+                } catch (ExecutionException ex) {
+                    assertEquals(4, i);
+                }
+            }
+            journal.close();
+            List<String> records = replay(file);
+            assertEquals(7, records.size());
+            assertTrue(!records.contains(first(4) + " " + first(4)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Writes only half of one batch and fails.
+     */
+    private static class TornJournal extends CardJournal {
+
+        private final int tornBatch;
+        private int batches;
+
+        TornJournal(File file, int tornBatch) throws IOException {
+            super(file, 0);
+            this.tornBatch = tornBatch;
+        }
+
+        TornJournal(File file, int tornBatch, long commitIntervalMillis,
+                int maxBatchSize) throws IOException {
+            super(file, 0, commitIntervalMillis, maxBatchSize);
+            this.tornBatch = tornBatch;
+        }
+
+        @Override
+        void writeBatch(FileOutputStream output, byte[] bytes)
+                throws IOException {
+            if (++batches == tornBatch) {
+                output.write(bytes, 0, bytes.length / 2);
+                throw new IOException("Disk is full");
+            }
+            super.writeBatch(output, bytes);
+        }
+    }
+
+    private static File newFile() throws IOException {
+        File file = File.createTempFile("cards", ".journal");
+        assertTrue(file.delete());
+        return file;
+    }
+
+    private static String first(int card) {
+        return String.format("4000 0000 0000 %04d", card);
+    }
+
+    /**
+     * Append a new card and a second code of it, for every card.
+     */
+    private static void appendCards(CardJournal journal, int from, int to)
+            throws IOException {
+        for (int i = from; i < to; i++) {
+            journal.append(first(i), first(i));
+            journal.append(first(i), first(i).replace('4', '5'));
+        }
+    }
+
+    private static List<String> expected(int from, int to) {
+        List<String> records = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            records.addAll(Arrays.asList(first(i) + " " + first(i),
+                    first(i) + " " + first(i).replace('4', '5')));
+        }
+        return records;
+    }
+
+    private static List<String> replay(File file) throws IOException {
+        List<String> records = new ArrayList<>();
+        CardJournal.replay(file, (first, code) -> records.add(first + " "
+                + code));
+        return records;
+    }
+
+}
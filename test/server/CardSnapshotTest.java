@@ -0,0 +1,156 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * CardSnapshot files written and mapped again. Small chunks are used, so many
+ * records cross the end of a chunk the way they cross the 1GB chunks of a big
+ * snapshot.
+ *
+ * @author petar
+ */
+public class CardSnapshotTest {
+
+    // 4KB chunks, a record is 241 bytes
+    private static final int CHUNK_BITS = 12;
+    private static final int CARDS = 500;
+
+    @Test
+    public void roundTripAcrossChunks() throws IOException {
+        List<CreditCard> cards = randomCards(new Random(5), CARDS);
+        File file = newFile();
+        try {
+            CardSnapshot.write(file, cards, CHUNK_BITS);
+            assertTrue(file.length() > 10L << CHUNK_BITS);
+            check(CardSnapshot.open(file, CHUNK_BITS), cards);
+            //the chunks don't change the file
+            check(CardSnapshot.open(file), cards);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void defaultChunksRoundTrip() throws IOException {
+        List<CreditCard> cards = randomCards(new Random(6), CARDS);
+        File file = newFile();
+        try {
+            CardSnapshot.write(file, cards);
+            check(CardSnapshot.open(file, CHUNK_BITS), cards);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void xmlCardsAreStreamed() throws IOException {
+        File xml = File.createTempFile("cards", ".xml");
+        File file = newFile();
+        try {
+            Files.write(xml.toPath(), ("<CreditCardDataBase><creditCards>"
+                    + "<CreditCard><creditCardCodes><string>a</string>"
+                    + "<string>b</string></creditCardCodes></CreditCard>"
+                    + "<CreditCard><creditCardCodes><string>c</string>"
+                    + "</creditCardCodes></CreditCard>"
+                    + "</creditCards></CreditCardDataBase>").getBytes(
+                            StandardCharsets.US_ASCII));
+            try (CardXmlReader reader = new CardXmlReader(xml)) {
+                CardSnapshot.write(file, () -> reader);
+                assertEquals(2, reader.getCount());
+            }
+            CardSnapshot snapshot = CardSnapshot.open(file);
+            assertEquals(2, snapshot.getCardCount());
+            assertEquals(0, snapshot.findCard("b"));
+            assertEquals(1, snapshot.findCardByFirstCode("c"));
+        } finally {
+            xml.delete();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void emptySnapshot() throws IOException {
+        File file = newFile();
+        try {
+            CardSnapshot.write(file, Collections.<CreditCard>emptyList());
+            CardSnapshot snapshot = CardSnapshot.open(file);
+            assertEquals(0, snapshot.getCardCount());
+            assertEquals(-1, snapshot.findCard("4563 9601 2200 1999"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void longCodeIsRejected() throws IOException {
+        CreditCard card = new CreditCard();
+        card.addCreditCardCode("4563 9601 2200 1999 1");
+        File file = newFile();
+        try {
+            CardSnapshot.write(file, Collections.singletonList(card));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsRejected() throws IOException {
+        File file = newFile();
+        try {
+            Files.write(file.toPath(), new byte[100]);
+            CardSnapshot.open(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void check(CardSnapshot snapshot, List<CreditCard> cards) {
+        assertEquals(cards.size(), snapshot.getCardCount());
+        for (int record = 0; record < cards.size(); record++) {
+            CreditCard card = cards.get(record);
+            assertEquals(card.getCreditCardCodes(),
+                    snapshot.getCard(record).getCreditCardCodes());
+            for (int i = 0; i < card.getSize(); i++) {
+                String code = card.codeAt(i);
+                assertEquals(code, record, snapshot.findCard(code));
+                assertEquals(code, (i == 0) ? record : -1,
+                        snapshot.findCardByFirstCode(code));
+            }
+        }
+        assertEquals(-1, snapshot.findCard("9999 9999 9999 9999"));
+        assertEquals(-1, snapshot.findCard("4563 9601 2200 1999 1"));
+    }
+
+    /**
+     * Cards of 1 to 12 codes, every code is different.
+     */
+    private static List<CreditCard> randomCards(Random random, int count) {
+        List<CreditCard> cards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CreditCard card = new CreditCard();
+            int size = 1 + random.nextInt(CreditCardManager.MAX_CODES_PER_CARD);
+            for (int j = 0; j < size; j++) {
+                String code = String.format("%04d%02d", i, j)
+                        + AlgorithmTest.randomText(random, 10 + random.nextInt(4));
+                card.addCreditCardCode(code);
+            }
+            cards.add(card);
+        }
+        return cards;
+    }
+
+    private static File newFile() throws IOException {
+        return File.createTempFile("cards", ".bin");
+    }
+
+}
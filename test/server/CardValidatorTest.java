@@ -0,0 +1,85 @@
+package server;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Compares CardValidator with the original regex and Luhn check, on random
+ * inputs. The network(first digits) is left to the BIN table, so the regex
+ * only requires a digit first.
+ *
+ * @author petar
+ */
+public class CardValidatorTest {
+
+    private static final String CARD_PATTERN = "^[0-9]{1}[0-9 ]{15,18}$";
+    private static final int INPUTS = 200000;
+
+    @Test
+    public void matchesOriginal() {
+        Random random = new Random(19);
+        String[] numbers = new String[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            numbers[i] = randomInput(random);
+            assertEquals(numbers[i], original(numbers[i]),
+                    CardValidator.validate(numbers[i]));
+        }
+        ValidationResult[] results = CardValidator.validate(numbers);
+        for (int i = 0; i < INPUTS; i++) {
+            assertEquals(numbers[i], original(numbers[i]), results[i]);
+        }
+    }
+
+    @Test
+    public void luhnMatchesOriginal() {
+        Random random = new Random(19);
+        for (int i = 0; i < INPUTS; i++) {
+            String number = AlgorithmTest.randomText(random,
+                    1 + random.nextInt(22));
+            assertEquals(number, originalLuhn(number),
+                    CardValidator.isLuhnValid(number));
+        }
+    }
+
+    /**
+     * Digits and spaces of about the right length, sometimes with another
+     * char.
+     */
+    private static String randomInput(Random random) {
+        char[] input = AlgorithmTest.randomText(random, 14 + random.nextInt(8))
+                .toCharArray();
+        if (input.length > 0 && random.nextInt(10) == 0) {
+            input[random.nextInt(input.length)] = (char) ('a'
+                    + random.nextInt(26));
+        }
+        return new String(input);
+    }
+
+    private static ValidationResult original(String number) {
+        if (!number.matches(CARD_PATTERN)) {
+            return ValidationResult.INVALID;
+        }
+        return originalLuhn(number) ? ValidationResult.OK
+                : ValidationResult.LUHN;
+    }
+
+    private static boolean originalLuhn(String number) {
+        number = number.replace(" ", "");
+        int oddSum = 0, evenSum = 0;
+        String reverse = new StringBuffer(number).reverse().toString();
+        for (int i = 0; i < reverse.length(); i++) {
+            int digit = Character.digit(reverse.charAt(i), 10);
+            if (i % 2 == 0) {
+                oddSum += digit;
+            } else {
+                evenSum += 2 * digit;
+                if (digit >= 5) {
+                    evenSum -= 9;
+                }
+            }
+        }
+        return (oddSum + evenSum) % 10 == 0;
+    }
+
+}
@@ -0,0 +1,132 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * FF1Cipher against the radix 10 samples of NIST SP 800-38G(FF1 samples 1, 2,
+ * 4 and 5), and round trips of card numbers.
+ *
+ * @author petar
+ */
+public class FF1CipherTest {
+
+    private static final String AES_128_KEY
+            = "2B7E151628AED2A6ABF7158809CF4F3C";
+    private static final String AES_192_KEY
+            = "2B7E151628AED2A6ABF7158809CF4F3CEF4359D8D580AA4F";
+    private static final String TWEAK = "39383736353433323130";
+
+    @Test
+    public void sample1() {
+        checkSample(AES_128_KEY, "", "0123456789", "2433477484");
+    }
+
+    @Test
+    public void sample2() {
+        checkSample(AES_128_KEY, TWEAK, "0123456789", "6124200773");
+    }
+
+    @Test
+    public void sample4() {
+        checkSample(AES_192_KEY, "", "0123456789", "2830668132");
+    }
+
+    @Test
+    public void sample5() {
+        checkSample(AES_192_KEY, TWEAK, "0123456789", "2496655549");
+    }
+
+    @Test
+    public void roundTripKeepsLayout() {
+        CryptAlgorithm cipher = new Algorithm(5)
+                .formatPreservingCipher(new byte[16]);
+        Random random = new Random(17);
+        for (int i = 0; i < 20000; i++) {
+            String number = AlgorithmTest.randomText(random,
+                    16 + random.nextInt(4));
+            if (number.replace(" ", "").length() < 6) {
+                continue;
+            }
+            int offset = random.nextInt(16);
+            String code = cipher.encrypt(number, offset);
+            assertEquals(number.length(), code.length());
+            for (int j = 0; j < number.length(); j++) {
+                assertTrue(code, (number.charAt(j) == ' ')
+                        == (code.charAt(j) == ' '));
+            }
+            assertEquals(number, cipher.decrypt(code, offset));
+        }
+    }
+
+    /**
+     * Workers are shared by the threads, every call must still get the
+     * result of a single thread.
+     */
+    @Test
+    public void concurrentCallsMatchSequential() throws Exception {
+        CryptAlgorithm cipher = new Algorithm(5)
+                .formatPreservingCipher(new byte[16]);
+        Random random = new Random(18);
+        String[] numbers = new String[2000];
+        String[] codes = new String[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = String.format("4%015d",
+                    (long) (random.nextDouble() * 1e15));
+            codes[i] = cipher.encrypt(numbers[i], 5);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> calls = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                calls.add(pool.submit(() -> {
+                    for (int i = 0; i < numbers.length; i++) {
+                        assertEquals(codes[i], cipher.encrypt(numbers[i], 5));
+                        assertEquals(numbers[i], cipher.decrypt(codes[i], 5));
+                    }
+                }));
+            }
+            for (Future<?> call : calls) {
+                call.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void checkSample(String key, String tweak, String plainText,
+            String cipherText) {
+        FF1Cipher cipher = new FF1Cipher(bytes(key), 0);
+        byte[] digits = digits(plainText);
+        cipher.crypt(digits, bytes(tweak), true);
+        assertArrayEquals(digits(cipherText), digits);
+        cipher.crypt(digits, bytes(tweak), false);
+        assertArrayEquals(digits(plainText), digits);
+    }
+
+    private static byte[] bytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(
+                    hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] digits(String text) {
+        byte[] digits = new byte[text.length()];
+        for (int i = 0; i < digits.length; i++) {
+            digits[i] = (byte) (text.charAt(i) - '0');
+        }
+        return digits;
+    }
+
+}
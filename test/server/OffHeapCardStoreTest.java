@@ -0,0 +1,125 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * OffHeapCardStore with small buffers, so the cards are spread over many
+ * record buffers and the index over many index buffers, and the index is
+ * resized while codes are added.
+ *
+ * @author petar
+ */
+public class OffHeapCardStoreTest {
+
+    // 8 cards in a buffer of records, 64 slots in a buffer of the index
+    private static final int CHUNK_BITS = 3;
+    private static final int INDEX_CHUNK_BITS = 6;
+    private static final int CARDS = 2000;
+
+    @Test
+    public void addAndFindAcrossChunks() {
+        OffHeapCardStore store = new OffHeapCardStore(16, CHUNK_BITS,
+                INDEX_CHUNK_BITS);
+        List<List<CardNumber>> cards = randomCards(new Random(8));
+        for (List<CardNumber> card : cards) {
+            for (CardNumber code : card) {
+                store.addCode(card.get(0), code);
+            }
+        }
+        check(store, cards);
+    }
+
+    @Test
+    public void concurrentAddsAreAllKept() throws Exception {
+        OffHeapCardStore store = new OffHeapCardStore(16, CHUNK_BITS,
+                INDEX_CHUNK_BITS);
+        List<List<CardNumber>> cards = randomCards(new Random(9));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> added = new ArrayList<>();
+            for (List<CardNumber> card : cards) {
+                added.add(pool.submit(() -> {
+                    for (CardNumber code : card) {
+                        store.addCode(card.get(0), code);
+                    }
+                }));
+            }
+            for (Future<?> future : added) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        check(store, cards);
+    }
+
+    @Test
+    public void unknownCodes() {
+        OffHeapCardStore store = new OffHeapCardStore(16, CHUNK_BITS,
+                INDEX_CHUNK_BITS);
+        CardNumber first = CardNumber.of("4563 9601 2200 1999");
+        CardNumber second = CardNumber.of("4563 9601 2200 1998");
+        store.addCode(first, first);
+        store.addCode(first, second);
+        assertNull(store.getFirstCode(CardNumber.of("4563 9601 2200 1997")));
+        assertEquals(0, store.getSize(second));
+        assertEquals(2, store.getSize(first));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void fullCardIsRejected() {
+        OffHeapCardStore store = new OffHeapCardStore(16, CHUNK_BITS,
+                INDEX_CHUNK_BITS);
+        CardNumber first = CardNumber.of("4000 0000 0000 0000");
+        for (int i = 0; i <= CreditCardManager.MAX_CODES_PER_CARD; i++) {
+            store.addCode(first, CardNumber.of(
+                    String.format("4000 0000 0000 %04d", i)));
+        }
+    }
+
+    private static void check(OffHeapCardStore store,
+            List<List<CardNumber>> cards) {
+        assertEquals(cards.size(), store.getCardCount());
+        for (List<CardNumber> card : cards) {
+            CardNumber first = card.get(0);
+            assertEquals(first.toString(), card.size(), store.getSize(first));
+            for (CardNumber code : card) {
+                assertEquals(code.toString(), first, store.getFirstCode(code));
+            }
+        }
+        List<String> stored = store.getCreditCards()
+                .map(card -> card.getCreditCardCodes().toString())
+                .sorted().collect(Collectors.toList());
+        List<String> expected = cards.stream()
+                .map(card -> card.toString()).sorted()
+                .collect(Collectors.toList());
+        assertEquals(expected, stored);
+    }
+
+    /**
+     * Cards of 1 to 12 codes, every code is different.
+     */
+    private static List<List<CardNumber>> randomCards(Random random) {
+        List<List<CardNumber>> cards = new ArrayList<>();
+        for (int i = 0; i < CARDS; i++) {
+            List<CardNumber> card = new ArrayList<>();
+            int size = 1 + random.nextInt(CreditCardManager.MAX_CODES_PER_CARD);
+            for (int j = 0; j < size; j++) {
+                card.add(CardNumber.of(String.format("%04d %02d", i, j)
+                        + AlgorithmTest.randomText(random, 12)));
+            }
+            cards.add(card);
+        }
+        return cards;
+    }
+
+}